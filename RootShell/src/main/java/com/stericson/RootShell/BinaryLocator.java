@@ -0,0 +1,220 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds binaries by listing the directories they are searched in, instead of asking the shell
+ * about every directory and binary.
+ * <p/>
+ * Every directory is listed once through java.io.File and the names in it are kept until
+ * the directory changes, which is told by its modification time, or until
+ * {@link RootShell#binaryCacheTimeout} has passed. Directories the app cannot list are probed
+ * for the binary directly, and only when that does not find it they are all listed together
+ * in one root shell command.
+ */
+public final class BinaryLocator {
+
+    private static final String DIR_MARKER = "BinaryLocator:";
+
+    private static BinaryLocator instance = null;
+
+    //listing of each directory, keyed by the directory with a trailing slash
+    private final Map<String, Listing> listings = new HashMap<String, Listing>();
+
+    BinaryLocator() {
+    }
+
+    public static synchronized BinaryLocator getInstance() {
+        if (instance == null) {
+            instance = new BinaryLocator();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @param binaryName  the binary to find.
+     * @param searchPaths the directories to look in, in order.
+     * @param singlePath  stop at the first directory that has the binary.
+     * @return the directories the binary was found in, each with a trailing slash, in the
+     * order of searchPaths.
+     */
+    public synchronized List<String> find(String binaryName, List<String> searchPaths, boolean singlePath) {
+        List<String> foundPaths = new ArrayList<String>();
+        List<Listing> unlisted = new ArrayList<Listing>();
+        long now = System.currentTimeMillis();
+
+        for (String path : searchPaths) {
+            Listing listing = getListing(path, now);
+
+            if (listing.names == null) {
+                unlisted.add(listing);
+            }
+
+            if (listing.contains(binaryName)) {
+                RootShell.log(binaryName + " was found here: " + listing.path);
+                foundPaths.add(listing.path);
+
+                if (singlePath) {
+                    return foundPaths;
+                }
+            }
+        }
+
+        if (foundPaths.isEmpty() && !unlisted.isEmpty()) {
+            listWithShell(unlisted);
+
+            for (String path : searchPaths) {
+                Listing listing = listings.get(normalize(path));
+
+                if (listing.contains(binaryName)) {
+                    RootShell.log(binaryName + " was found here: " + listing.path);
+                    foundPaths.add(listing.path);
+
+                    if (singlePath) {
+                        break;
+                    }
+                }
+            }
+        }
+
+        return foundPaths;
+    }
+
+    /**
+     * Forgets every listing, the next lookup lists the directories again.
+     */
+    public synchronized void invalidate() {
+        listings.clear();
+    }
+
+    private Listing getListing(String path, long now) {
+        String dir = normalize(path);
+        Listing listing = listings.get(dir);
+        File file = new File(dir);
+
+        if (listing != null
+                && now - listing.listedAt < RootShell.binaryCacheTimeout
+                && file.lastModified() == listing.modified) {
+            return listing;
+        }
+
+        listing = new Listing(dir, file.lastModified(), now);
+        String[] names = file.list();
+
+        if (names != null) {
+            listing.names = new HashSet<String>(Arrays.asList(names));
+        } else if (!file.exists()) {
+            listing.names = new HashSet<String>();
+        }
+
+        listings.put(dir, listing);
+        return listing;
+    }
+
+    /**
+     * Lists every directory in one command, each listing preceded by a line naming the directory.
+     */
+    private void listWithShell(List<Listing> unlisted) {
+        final Map<String, Set<String>> names = new HashMap<String, Set<String>>();
+        String[] commands = new String[unlisted.size() * 2];
+
+        for (int i = 0; i < unlisted.size(); i++) {
+            String dir = unlisted.get(i).path;
+            names.put(dir, new HashSet<String>());
+            commands[i * 2] = "echo '" + DIR_MARKER + dir + "'";
+            commands[i * 2 + 1] = "ls -a '" + dir + "'";
+        }
+
+        Command command = new Command(0, false, commands) {
+            private Set<String> current = null;
+
+            @Override
+            public void commandOutput(int id, String line) {
+                if (line.startsWith(DIR_MARKER)) {
+                    current = names.get(line.substring(DIR_MARKER.length()));
+                } else if (current != null && line.length() > 0 && line.indexOf('/') == -1) {
+                    //anything with a slash is an error message, not a file name
+                    current.add(line.trim());
+                }
+
+                super.commandOutput(id, line);
+            }
+        };
+
+        try {
+            Shell shell = RootShell.getShell(true);
+            shell.add(command);
+            RootShell.commandWait(shell, command);
+        } catch (Exception e) {
+            RootShell.log("Could not list " + names.keySet() + " with the root shell: " + e);
+            return;
+        }
+
+        for (Listing listing : unlisted) {
+            listing.names = names.get(listing.path);
+        }
+    }
+
+    private static String normalize(String path) {
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    private static final class Listing {
+
+        final String path;
+
+        final long modified;
+
+        final long listedAt;
+
+        //null while the directory could not be listed
+        Set<String> names = null;
+
+        Listing(String path, long modified, long listedAt) {
+            this.path = path;
+            this.modified = modified;
+            this.listedAt = listedAt;
+        }
+
+        boolean contains(String binaryName) {
+            if (names != null) {
+                return names.contains(binaryName);
+            }
+
+            //a directory we may search but not read still answers for a single file
+            return new File(path + binaryName).exists();
+        }
+    }
+}
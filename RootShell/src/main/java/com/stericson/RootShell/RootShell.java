@@ -29,7 +29,6 @@ import com.stericson.RootShell.execution.Shell;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -64,6 +63,32 @@ public class RootShell {
      */
     public static int defaultCommandTimeout = 20000;
 
+    /**
+     * Setting this will change how many unfinished commands a newly opened shell can hold.
+     * <p/>
+     * Once a shell is holding this many commands, Shell.add will block until
+     * one of them finishes. The value is rounded up to a power of two.
+     * <p/>
+     * The default is 1024
+     */
+    public static int defaultCommandQueueCapacity = 1024;
+
+    /**
+     * Setting this will change how long findBinary trusts a directory listing
+     * that has not changed since it was taken.
+     * <p/>
+     * The default is 60000ms
+     */
+    public static int binaryCacheTimeout = 60000;
+
+    /**
+     * Setting this will change the command that opens a root shell, e.g. for a su binary
+     * that is not on the PATH.
+     * <p/>
+     * The default is su
+     */
+    public static String rootShellCommand = "su";
+
     public static enum LogLevel {
         VERBOSE,
         ERROR,
@@ -121,7 +146,8 @@ public class RootShell {
      * @return a boolean that will indicate whether or not the file exists.
      */
     public static boolean exists(final String file, boolean isDir) {
-        final List<String> result = new ArrayList<String>();
+        //only remember whether the file turned up, "ls" of a directory can be long
+        final boolean[] found = new boolean[1];
 
         String cmdToExecute = "ls " + (isDir ? "-d " : " ");
 
@@ -129,7 +155,10 @@ public class RootShell {
             @Override
             public void commandOutput(int id, String line) {
                 RootShell.log(line);
-                result.add(line);
+
+                if (line.trim().equals(file)) {
+                    found[0] = true;
+                }
 
                 super.commandOutput(id, line);
             }
@@ -145,19 +174,18 @@ public class RootShell {
             return false;
         }
 
-        for (String line : result) {
-            if (line.trim().equals(file)) {
-                return true;
-            }
+        if (found[0]) {
+            return true;
         }
 
-        result.clear();
-
         command = new Command(0, false, cmdToExecute + file) {
             @Override
             public void commandOutput(int id, String line) {
                 RootShell.log(line);
-                result.add(line);
+
+                if (line.trim().equals(file)) {
+                    found[0] = true;
+                }
 
                 super.commandOutput(id, line);
             }
@@ -172,17 +200,7 @@ public class RootShell {
             return false;
         }
 
-        //Avoid concurrent modification...
-        List<String> final_result = new ArrayList<String>();
-        final_result.addAll(result);
-
-        for (String line : final_result) {
-            if (line.trim().equals(file)) {
-                return true;
-            }
-        }
-
-        return false;
+        return found[0];
 
     }
 
@@ -205,10 +223,6 @@ public class RootShell {
      */
     public static List<String> findBinary(final String binaryName, List<String> searchPaths, boolean singlePath) {
 
-        final List<String> foundPaths = new ArrayList<String>();
-
-        boolean found = false;
-
         if(searchPaths == null)
         {
             searchPaths = RootShell.getPath();
@@ -216,70 +230,12 @@ public class RootShell {
 
         RootShell.log("Checking for " + binaryName);
 
-        //Try to use stat first
-        try {
-            for (String path : searchPaths) {
-
-                if(!path.endsWith("/"))
-                {
-                    path += "/";
-                }
-
-                final String currentPath = path;
-
-                Command cc = new Command(0, false, "stat " + path + binaryName) {
-                    @Override
-                    public void commandOutput(int id, String line) {
-                        if (line.contains("File: ") && line.contains(binaryName)) {
-                            foundPaths.add(currentPath);
-
-                            RootShell.log(binaryName + " was found here: " + currentPath);
-                        }
+        List<String> foundPaths = BinaryLocator.getInstance().find(binaryName, searchPaths, singlePath);
 
-                        RootShell.log(line);
-
-                        super.commandOutput(id, line);
-                    }
-                };
-
-                cc = RootShell.getShell(false).add(cc);
-                commandWait(RootShell.getShell(false), cc);
-
-                if(foundPaths.size() > 0 && singlePath) {
-                    break;
-                }
-            }
-
-            found = !foundPaths.isEmpty();
-
-        } catch (Exception e) {
+        if (foundPaths.isEmpty()) {
             RootShell.log(binaryName + " was not found, more information MAY be available with Debugging on.");
         }
 
-        if (!found) {
-            RootShell.log("Trying second method");
-
-            for (String path : searchPaths) {
-
-                if(!path.endsWith("/"))
-                {
-                    path += "/";
-                }
-
-                if (RootShell.exists(path + binaryName)) {
-                    RootShell.log(binaryName + " was found here: " + path);
-                    foundPaths.add(path);
-
-                    if(foundPaths.size() > 0 && singlePath) {
-                        break;
-                    }
-
-                } else {
-                    RootShell.log(binaryName + " was NOT found here: " + path);
-                }
-            }
-        }
-
         Collections.reverse(foundPaths);
 
         return foundPaths;
@@ -570,41 +526,16 @@ public class RootShell {
     // # Public Methods #
     // --------------------
 
-    private static void commandWait(Shell shell, Command cmd) throws Exception {
-        while (!cmd.isFinished()) {
-
+    static void commandWait(Shell shell, Command cmd) throws Exception {
+        if (debugMode) {
             RootShell.log(version, shell.getCommandQueuePositionString(cmd));
-            RootShell.log(version, "Processed " + cmd.totalOutputProcessed + " of " + cmd.totalOutput + " output from command.");
-
-            synchronized (cmd) {
-                try {
-                    if (!cmd.isFinished()) {
-                        cmd.wait(2000);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            if (!cmd.isExecuting() && !cmd.isFinished()) {
-                if (!shell.isExecuting && !shell.isReading) {
-                    RootShell.log(version, "Waiting for a command to be executed in a shell that is not executing and not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                } else if (shell.isExecuting && !shell.isReading) {
-                    RootShell.log(version, "Waiting for a command to be executed in a shell that is executing but not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                } else {
-                    RootShell.log(version, "Waiting for a command to be executed in a shell that is not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                }
-            }
+        }
 
+        try {
+            cmd.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         }
     }
 }
@@ -0,0 +1,110 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * A command whose stdout is handed over as raw bytes instead of lines, for output that is not
+ * text such as <code>cat</code> of a partition header or <code>dd</code> of the misc block.
+ * Nothing is decoded, split or dropped, so the bytes arrive exactly as the command wrote them.
+ * <p/>
+ * By default the output is collected and available through {@link #getOutput()}. Override
+ * {@link #commandOutput(int, byte[], int, int)} to process it as it arrives instead, or use a
+ * plain Command with an {@link OutputSink}.
+ * <p/>
+ * Binary output is always delivered on the "Shell Output" thread, even when the handler is
+ * enabled. Lines written to stderr are still delivered as text to
+ * {@link #commandOutput(int, String)}.
+ */
+public class BinaryCommand extends Command {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private final OutputSink sink = new OutputSink() {
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            commandOutput(id, buffer, offset, length);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            //pass
+        }
+    };
+
+    /**
+     * @param id      the id of the command being executed
+     * @param command the command, or commands, to be executed.
+     */
+    public BinaryCommand(int id, String... command) {
+        super(id, command);
+        setOutputSink(sink);
+    }
+
+    /**
+     * @param id      the id of the command being executed
+     * @param timeout the time allowed before the shell will give up executing the command
+     *                and throw a TimeoutException.
+     * @param command the command, or commands, to be executed.
+     */
+    public BinaryCommand(int id, int timeout, String... command) {
+        super(id, timeout, command);
+        setOutputSink(sink);
+    }
+
+    /**
+     * @param id             the id of the command being executed
+     * @param handlerEnabled when true the handler will be used to call the
+     *                       completed and terminated callbacks if possible.
+     * @param timeout        the time allowed before the shell will give up executing the command
+     *                       and throw a TimeoutException.
+     * @param command        the command, or commands, to be executed.
+     */
+    public BinaryCommand(int id, boolean handlerEnabled, int timeout, String... command) {
+        super(id, handlerEnabled, timeout, command);
+        setOutputSink(sink);
+    }
+
+    /**
+     * Called with the next piece of stdout.
+     * <p/>
+     * The buffer is reused as soon as this returns, copy whatever you want to keep.
+     *
+     * @param id     the id of the command
+     * @param buffer holds the output
+     * @param offset where the output starts in buffer
+     * @param length the number of bytes of output
+     */
+    public void commandOutput(int id, byte[] buffer, int offset, int length) {
+        output.write(buffer, offset, length);
+    }
+
+    /**
+     * @return everything the command wrote to stdout, unless
+     * {@link #commandOutput(int, byte[], int, int)} was overridden.
+     */
+    public final byte[] getOutput() {
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands the output of a command to its callbacks on an executor, in batches instead of a message
+ * per line.
+ * <p/>
+ * Lines that arrive while a batch is waiting for the executor join that batch, so there is at most
+ * one task in the executor's queue however fast the command writes. A busy main thread therefore
+ * gets one delivery with everything that piled up rather than a flood of messages. The batches are
+ * delivered one after the other, even on an executor with several threads, and the end of the
+ * command comes after the last line.
+ */
+final class CallbackDispatcher implements Runnable {
+
+    private static final int NONE = 0;
+
+    private static final int COMPLETED = 1;
+
+    private static final int TERMINATED = 2;
+
+    private final Command command;
+
+    private final Executor executor;
+
+    private final int maxBatchSize;
+
+    private ArrayList<String> pending = new ArrayList<String>();
+
+    //the list of the previous batch, reused for the next one
+    private ArrayList<String> spare = new ArrayList<String>();
+
+    private boolean scheduled = false;
+
+    private int end = NONE;
+
+    private String reason = null;
+
+    private boolean endDelivered = false;
+
+    /**
+     * @param maxBatchSize the most lines in one delivery, more lines are delivered in several
+     *                     tasks so the executor's thread gets to do other work in between.
+     */
+    CallbackDispatcher(Command command, Executor executor, int maxBatchSize) {
+        this.command = command;
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : Integer.MAX_VALUE;
+    }
+
+    synchronized void line(String line) {
+        pending.add(line);
+        schedule();
+    }
+
+    synchronized void completed() {
+        end(COMPLETED, null);
+    }
+
+    synchronized void terminated(String reason) {
+        end(TERMINATED, reason);
+    }
+
+    private void end(int end, String reason) {
+        if (this.end != NONE) {
+            return;
+        }
+
+        this.end = end;
+        this.reason = reason;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        ArrayList<String> batch;
+        int end = NONE;
+
+        synchronized (this) {
+            if (pending.size() <= maxBatchSize) {
+                batch = pending;
+                pending = spare;
+                spare = null;
+            } else {
+                List<String> head = pending.subList(0, maxBatchSize);
+                batch = new ArrayList<String>(head);
+                head.clear();
+            }
+
+            if (pending.isEmpty() && this.end != NONE && !endDelivered) {
+                end = this.end;
+                endDelivered = true;
+            }
+        }
+
+        try {
+            if (!batch.isEmpty()) {
+                command.commandOutput(command.id, batch);
+            }
+
+            if (end == COMPLETED) {
+                command.commandCompleted(command.id, command.exitCode);
+            } else if (end == TERMINATED) {
+                command.commandTerminated(command.id, reason);
+            }
+        } finally {
+            synchronized (this) {
+                if (spare == null) {
+                    batch.clear();
+                    spare = batch;
+                }
+
+                if (!pending.isEmpty() || (this.end != NONE && !endDelivered)) {
+                    executor.execute(this);
+                } else {
+                    scheduled = false;
+                }
+            }
+        }
+    }
+}
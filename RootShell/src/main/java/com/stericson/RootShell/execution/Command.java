@@ -32,6 +32,11 @@ import android.os.Looper;
 import android.os.Message;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
 
 public class Command {
 
@@ -39,14 +44,35 @@ public class Command {
     protected boolean javaCommand = false;
     protected Context context = null;
 
-    public int totalOutput = 0;
+    //lines handed to the callbacks and lines the callbacks are done with, the difference is what is still outstanding
+    public volatile int totalOutput = 0;
 
-    public int totalOutputProcessed = 0;
+    public volatile int totalOutputProcessed = 0;
 
-    ExecutionMonitor executionMonitor = null;
+    ScheduledFuture<?> timeoutFuture = null;
+
+    //the shell the command was written to, set when it starts executing
+    Shell shell = null;
+
+    //pid of the job running the command, or of the shell for a command that runs in it: -1 until the shell reports it, 0 once the command is over
+    int jobPid = -1;
+
+    //when cleared, the command runs as a job of its own instead of in the shell itself
+    boolean runInShell = true;
+
+    //when set, the command is run again on a new shell if its shell is lost before it finishes
+    boolean idempotent = false;
+
+    //when set, stdout is streamed here instead of being passed to commandOutput line by line
+    OutputSink outputSink = null;
+
+    IOException outputSinkError = null;
 
     Handler mHandler = null;
 
+    //when set, the callbacks are made on an executor instead of through the handler
+    CallbackDispatcher dispatcher = null;
+
     //Has this command already been used?
     protected boolean used = false;
 
@@ -54,6 +80,12 @@ public class Command {
 
     String[] command = {};
 
+    //the command as written to the shell, see getEncodedCommand()
+    private volatile byte[] encoded = null;
+
+    //the java command prefix of every context, it does not change and getFilesDir() may touch the disk
+    private static final Map<Context, String> javaCommandPrefixes = new WeakHashMap<Context, String>();
+
     boolean finished = false;
 
     boolean terminated = false;
@@ -110,11 +142,91 @@ public class Command {
         createHandler(RootShell.handlerEnabled);
     }
 
+    /**
+     * Constructor for executing a normal shell command
+     *
+     * @param id             the id of the command being executed
+     * @param handlerEnabled when true the handler will be used to call the
+     *                       callback methods if possible.
+     * @param timeout        the time allowed before the shell will give up executing the command
+     *                       and throw a TimeoutException.
+     * @param command        the command, or commands, to be executed.
+     */
+    public Command(int id, boolean handlerEnabled, int timeout, String... command) {
+        this.command = command;
+        this.id = id;
+        this.timeout = timeout;
+
+        createHandler(handlerEnabled);
+    }
+
     //If you override this you MUST make a final call
     //to the super method. The super call should be the last line of this method.
     public void commandOutput(int id, String line) {
         RootShell.log("Command", "ID: " + id + ", " + line);
+        outputProcessed();
+    }
+
+    /**
+     * Counts a line as processed and wakes up the shell once the last outstanding line is.
+     */
+    private synchronized void outputProcessed() {
         totalOutputProcessed++;
+
+        if (totalOutputProcessed >= totalOutput) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the callbacks are done with every line handed to them so far, the handler that
+     * processes the last one wakes the waiting shell up.
+     */
+    final synchronized void awaitOutputProcessed() throws InterruptedException {
+        while (totalOutput > totalOutputProcessed) {
+            wait();
+        }
+    }
+
+    /**
+     * Waits until the command finished or was terminated. The shell wakes the waiting thread up the
+     * moment that happens, there is no polling.
+     */
+    public final synchronized void waitForFinish() throws InterruptedException {
+        while (!finished) {
+            wait();
+        }
+    }
+
+    /**
+     * @param timeout the most time to wait in milliseconds.
+     * @return true if the command finished or was terminated in time.
+     * @see #waitForFinish()
+     */
+    public final synchronized boolean waitForFinish(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long left = timeout;
+
+        while (!finished && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+
+        return finished;
+    }
+
+    /**
+     * Called with the lines that arrived since the last call when a callback executor is set, see
+     * {@link #setCallbackExecutor(Executor, int)}. Calls {@link #commandOutput(int, String)} for
+     * every line, override it to handle a whole batch at once.
+     *
+     * @param id    the id of the command.
+     * @param lines the lines in the order they were written. The list is reused once this returns.
+     */
+    public void commandOutput(int id, List<String> lines) {
+        for (int i = 0; i < lines.size(); i++) {
+            commandOutput(id, lines.get(i));
+        }
     }
 
     public void commandTerminated(int id, String reason) {
@@ -128,7 +240,9 @@ public class Command {
     protected final void commandFinished() {
         if (!terminated) {
             synchronized (this) {
-                if (mHandler != null && handlerEnabled) {
+                if (dispatcher != null) {
+                    dispatcher.completed();
+                } else if (mHandler != null && handlerEnabled) {
                     Message msg = mHandler.obtainMessage();
                     Bundle bundle = new Bundle();
                     bundle.putInt(CommandHandler.ACTION, CommandHandler.COMMAND_COMPLETED);
@@ -165,17 +279,53 @@ public class Command {
     protected final void finishCommand() {
         this.executing = false;
         this.finished = true;
+
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+            timeoutFuture = null;
+        }
+
         this.notifyAll();
     }
 
 
     public final String getCommand() {
         StringBuilder sb = new StringBuilder();
+        String prefix = javaCommand ? getJavaCommandPrefix(context) : "";
 
-        if(javaCommand) {
-            String filePath = context.getFilesDir().getPath();
+        for (int i = 0; i < command.length; i++) {
+            sb.append(prefix);
+            sb.append(command[i]);
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * @return the command as the bytes written to the shell, encoded the first time they are needed.
+     */
+    final byte[] getEncodedCommand() {
+        byte[] encoded = this.encoded;
+
+        if (encoded == null) {
+            encoded = FrameEncoder.encode(getCommand());
+            this.encoded = encoded;
+        }
+
+        return encoded;
+    }
+
+    /**
+     * What runs a java command with RootClass from anbuild.dex, the same for every command of a context.
+     */
+    private static String getJavaCommandPrefix(Context context) {
+        synchronized (javaCommandPrefixes) {
+            String prefix = javaCommandPrefixes.get(context);
+
+            if (prefix == null) {
+                String filePath = context.getFilesDir().getPath();
 
-            for (int i = 0; i < command.length; i++) {
                 /*
                  * TODO Make withFramework optional for applications
                  * that do not require access to the fw. -CFR
@@ -183,29 +333,19 @@ public class Command {
                 //export CLASSPATH=/data/user/0/ch.masshardt.emailnotification/files/anbuild.dex ; app_process /system/bin
                 if (Build.VERSION.SDK_INT > 22) {
                     //dalvikvm command is not working in Android Marshmallow
-                    sb.append(
-                            "export CLASSPATH=" + filePath + "/anbuild.dex;"
-                                    + " app_process /system/bin "
-                                    + command[i]);
+                    prefix = "export CLASSPATH=" + filePath + "/anbuild.dex;"
+                            + " app_process /system/bin ";
                 } else {
-                    sb.append(
-                            "dalvikvm -cp " + filePath + "/anbuild.dex"
-                                    + " com.android.internal.util.WithFramework"
-                                    + " com.stericson.RootTools.containers.RootClass "
-                                    + command[i]);
+                    prefix = "dalvikvm -cp " + filePath + "/anbuild.dex"
+                            + " com.android.internal.util.WithFramework"
+                            + " com.stericson.RootTools.containers.RootClass ";
                 }
 
-                sb.append('\n');
-            }
-        }
-        else {
-            for (int i = 0; i < command.length; i++) {
-                sb.append(command[i]);
-                sb.append('\n');
+                javaCommandPrefixes.put(context, prefix);
             }
-        }
 
-        return sb.toString();
+            return prefix;
+        }
     }
 
     public final boolean isExecuting() {
@@ -230,33 +370,58 @@ public class Command {
         }
     }
 
-    protected final void startExecution() {
+    protected final void startExecution(Shell shell) {
+        this.shell = shell;
         this.used = true;
-        executionMonitor = new ExecutionMonitor(this);
-        executionMonitor.setPriority(Thread.MIN_PRIORITY);
-        executionMonitor.start();
         executing = true;
+
+        synchronized (this) {
+            if (!finished) {
+                timeoutFuture = ExecutionMonitor.watch(this);
+            }
+        }
     }
 
+    /**
+     * Terminates the command. What it runs is killed and the shell keeps running the commands
+     * queued behind it, see {@link #setRunInShell(boolean)}.
+     * A command that did not start yet is not run at all.
+     */
     public final void terminate()
     {
         RootShell.log("Terminating command at users request!");
-        terminated("Terminated at users request!");
+        cancel("Terminated at users request!");
     }
 
     protected final void terminate(String reason) {
-        try {
-            Shell.closeAll();
-            RootShell.log("Terminating all shells.");
+        cancel(reason);
+    }
+
+    private void cancel(String reason) {
+        Shell shell;
+
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+
+            shell = this.shell;
             terminated(reason);
-        } catch (IOException e) {
         }
+
+        if (shell == null) {
+            return;  //not written to a shell yet, it will be skipped
+        }
+
+        shell.killJob(this);
     }
 
     protected final void terminated(String reason) {
         synchronized (Command.this) {
 
-            if (mHandler != null && handlerEnabled) {
+            if (dispatcher != null) {
+                dispatcher.terminated(reason);
+            } else if (mHandler != null && handlerEnabled) {
                 Message msg = mHandler.obtainMessage();
                 Bundle bundle = new Bundle();
                 bundle.putInt(CommandHandler.ACTION, CommandHandler.COMMAND_TERMINATED);
@@ -277,7 +442,9 @@ public class Command {
     protected final void output(int id, String line) {
         totalOutput++;
 
-        if (mHandler != null && handlerEnabled) {
+        if (dispatcher != null) {
+            dispatcher.line(line);
+        } else if (mHandler != null && handlerEnabled) {
             Message msg = mHandler.obtainMessage();
             Bundle bundle = new Bundle();
             bundle.putInt(CommandHandler.ACTION, CommandHandler.COMMAND_OUTPUT);
@@ -289,33 +456,214 @@ public class Command {
         }
     }
 
-    private class ExecutionMonitor extends Thread {
+    /**
+     * Streams stdout into the sink as raw bytes instead of calling {@link #commandOutput(int, String)}
+     * for every line, so the output never has to be held in memory. stderr is still passed to
+     * commandOutput.
+     * <p/>
+     * The sink is fed from the "Shell Output" thread, even when the handler is enabled.
+     * Set the sink before the command is added to a shell.
+     *
+     * @param sink where the output should go.
+     * @return this command.
+     */
+    public final Command setOutputSink(OutputSink sink) {
+        if (used) {
+            throw new IllegalStateException("The output sink has to be set before the command is executed.");
+        }
+
+        this.outputSink = sink;
+        return this;
+    }
+
+    public final OutputSink getOutputSink() {
+        return outputSink;
+    }
 
-        private final Command command;
+    /**
+     * Makes the callbacks on the executor instead of posting a message for every line to the handler.
+     * Lines are collected into batches and handed to {@link #commandOutput(int, List)}; while a batch
+     * waits for the executor, new lines join it, so a command with thousands of lines of output costs
+     * a handful of tasks instead of a message each. commandCompleted or commandTerminated follows the
+     * last batch. The callbacks never run at the same time, even on an executor with several threads.
+     * <p/>
+     * To update the UI, pass an executor that posts to the main thread.
+     * Set the executor before the command is added to a shell.
+     *
+     * @param executor the executor to make the callbacks on.
+     * @return this command.
+     */
+    public final Command setCallbackExecutor(Executor executor) {
+        return setCallbackExecutor(executor, 0);
+    }
 
-        public ExecutionMonitor(Command command) {
-            this.command = command;
+    /**
+     * @param executor     the executor to make the callbacks on.
+     * @param maxBatchSize the most lines per call of {@link #commandOutput(int, List)}, more are
+     *                     split over several tasks so the executor's thread can do other work in
+     *                     between. 0 for no limit.
+     * @return this command.
+     * @see #setCallbackExecutor(Executor)
+     */
+    public final Command setCallbackExecutor(Executor executor, int maxBatchSize) {
+        if (used) {
+            throw new IllegalStateException("The callback executor has to be set before the command is executed.");
         }
 
-        public void run() {
-
-            if(command.timeout > 0)
-            {
-                synchronized (command) {
-                    try {
-                        RootShell.log("Command " + command.id + " is waiting for: " + command.timeout);
-                        command.wait(command.timeout);
-                    } catch (InterruptedException e) {
-                        RootShell.log("Exception: " + e);
-                    }
-
-                    if (!command.isFinished()) {
-                        RootShell.log("Timeout Exception has occurred for command: " + command.id + ".");
-                        terminate("Timeout Exception");
-                    }
-                }
-            }
+        this.dispatcher = executor != null ? new CallbackDispatcher(this, executor, maxBatchSize) : null;
+        return this;
+    }
+
+    /**
+     * By default a command runs in the shell itself, so cd, export, umask or variables it sets last
+     * for the commands after it. When it times out or is terminated, the processes the shell started
+     * for it are killed and the shell goes on with the next command. A command that only uses shell
+     * builtins, like a loop, cannot be stopped that way, its shell is closed then.
+     * <p/>
+     * A command that runs as a job of its own is killed as a whole, builtins included. The job runs
+     * in a subshell, so it cannot change the shell, and its stdin is /dev/null. Use it for long
+     * running commands.
+     * <p/>
+     * Killing a command of a root shell takes a second root shell, opened on the first kill and kept
+     * for the ones after it.
+     *
+     * @param runInShell false to run the command as a job of its own.
+     * @return this command.
+     */
+    public final Command setRunInShell(boolean runInShell) {
+        if (used) {
+            throw new IllegalStateException("Where the command runs has to be set before it is executed.");
+        }
+
+        this.runInShell = runInShell;
+        return this;
+    }
+
+    public final boolean isRunInShell() {
+        return runInShell;
+    }
+
+    /**
+     * A command that is safe to run more than once, like a query, is run again on the replacement
+     * of a supervised shell that is lost while the command runs. Any other command that was already
+     * written to the shell is terminated then, see {@link ShellSupervisor}.
+     * <p/>
+     * Output that was passed to the callbacks before the shell was lost is not taken back, the
+     * callbacks get the output of the second run after it.
+     *
+     * @param idempotent true if the command may run again.
+     * @return this command.
+     */
+    public final Command setIdempotent(boolean idempotent) {
+        if (used) {
+            throw new IllegalStateException("Whether the command may run again has to be set before it is executed.");
+        }
+
+        this.idempotent = idempotent;
+        return this;
+    }
+
+    public final boolean isIdempotent() {
+        return idempotent;
+    }
+
+    /**
+     * Makes the command ready to be added to another shell, after the shell it was added to was lost.
+     *
+     * @return false if the command finished in the meantime and must not be run again.
+     */
+    synchronized boolean prepareReplay() {
+        if (finished) {
+            return false;
+        }
+
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+            timeoutFuture = null;
+        }
+
+        shell = null;
+        jobPid = -1;
+        executing = false;
+        used = false;
+        return true;
+    }
+
+    final synchronized void jobStarted(int pid) {
+        jobPid = pid;
+        notifyAll();
+    }
+
+    final synchronized void jobFinished() {
+        jobPid = 0;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the shell to report the end of the command.
+     *
+     * @param timeout the time to wait in milliseconds.
+     * @return false if it did not end in time.
+     */
+    final synchronized boolean awaitJobEnd(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long left = timeout;
+
+        while (jobPid != 0 && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
         }
+
+        return jobPid == 0;
+    }
+
+    /**
+     * Waits for the shell to report the pid of the job, or its own pid for a command that runs in it.
+     *
+     * @param timeout the time to wait in milliseconds.
+     * @return the pid, 0 if the job is over already or -1 if it was not reported in time.
+     */
+    final synchronized int awaitJobPid(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        long left = timeout;
+
+        while (jobPid == -1 && left > 0) {
+            wait(left);
+            left = deadline - System.currentTimeMillis();
+        }
+
+        return jobPid;
+    }
+
+    final void output(byte[] buffer, int offset, int length) {
+        if (length == 0 || outputSinkError != null) {
+            return;
+        }
+
+        try {
+            outputSink.write(buffer, offset, length);
+        } catch (IOException e) {
+            RootShell.log("Output sink of command " + id + " failed: " + e);
+            outputSinkError = e;
+        }
+    }
+
+    final void finishOutput() {
+        if (outputSinkError != null) {
+            return;
+        }
+
+        try {
+            outputSink.finish();
+        } catch (IOException e) {
+            RootShell.log("Output sink of command " + id + " failed: " + e);
+            outputSinkError = e;
+        }
+    }
+
+    //lines read from stderr, by default they are passed on like any other output
+    void errorOutput(int id, String line) {
+        output(id, line);
     }
 
     private class CommandHandler extends Handler {
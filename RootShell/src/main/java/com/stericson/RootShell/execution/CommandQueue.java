@@ -0,0 +1,285 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring of commands shared by the callers of {@link Shell#add(Command)}, the
+ * "Shell Input" thread and the "Shell Output" thread.
+ * <p/>
+ * Every command gets a sequence number. Callers claim the next sequence with a CAS on
+ * <code>tail</code> and then publish the command into its slot. Only the input thread moves
+ * <code>written</code> and only the output thread moves <code>read</code>, and a slot is handed
+ * back to the callers once the output thread is done with it, so nothing ever has to be
+ * compacted while the shell is running.
+ */
+final class CommandQueue {
+
+    private final AtomicReferenceArray<Command> slots;
+
+    private final int mask;
+
+    //next sequence to hand out to a caller
+    private final AtomicLong tail = new AtomicLong();
+
+    //next sequence the input thread will write to the shell
+    private volatile long written = 0;
+
+    //next sequence the output thread is waiting on
+    private volatile long read = 0;
+
+    private volatile boolean closed = false;
+
+    //callers blocked in put() because the ring is full
+    private final Object notFull = new Object();
+
+    private volatile int waitingProducers = 0;
+
+    CommandQueue(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Command queue capacity must be positive: " + capacity);
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.slots = new AtomicReferenceArray<Command>(size);
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Adds the command if there is a free slot.
+     *
+     * @return false if the ring is full or closed.
+     */
+    boolean offer(Command command) {
+        long t = claim(1);
+
+        if (t == -1) {
+            return false;
+        }
+
+        slots.set(index(t), command);
+        return true;
+    }
+
+    /**
+     * Adds count commands of the batch, starting at from, into consecutive slots.
+     *
+     * @return false if there is no room for all of them or the ring is closed.
+     */
+    boolean offer(List<? extends Command> batch, int from, int count) {
+        long t = claim(count);
+
+        if (t == -1) {
+            return false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            slots.set(index(t + i), batch.get(from + i));
+        }
+        return true;
+    }
+
+    /**
+     * Claims count consecutive sequence numbers.
+     *
+     * @return the first sequence, or -1 if there is no room or the ring is closed.
+     */
+    private long claim(int count) {
+        while (!closed) {
+            long t = tail.get();
+
+            if (t + count - read > slots.length()) {
+                return -1;
+            }
+
+            if (tail.compareAndSet(t, t + count)) {
+                return t;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds the command, waiting for the output thread to free a slot if the ring is full.
+     *
+     * @return false if the queue was closed before the command could be added.
+     */
+    boolean put(Command command) throws InterruptedException {
+        if (offer(command)) {
+            return true;
+        }
+
+        synchronized (notFull) {
+            waitingProducers++;
+            try {
+                while (!closed) {
+                    if (offer(command)) {
+                        return true;
+                    }
+                    notFull.wait();
+                }
+                return false;
+            } finally {
+                waitingProducers--;
+            }
+        }
+    }
+
+    /**
+     * Adds count commands of the batch, starting at from, into consecutive slots, waiting for
+     * room like {@link #put(Command)}. count may not be larger than the capacity.
+     *
+     * @return false if the queue was closed before the commands could be added.
+     */
+    boolean put(List<? extends Command> batch, int from, int count) throws InterruptedException {
+        if (offer(batch, from, count)) {
+            return true;
+        }
+
+        synchronized (notFull) {
+            waitingProducers++;
+            try {
+                while (!closed) {
+                    if (offer(batch, from, count)) {
+                        return true;
+                    }
+                    notFull.wait();
+                }
+                return false;
+            } finally {
+                waitingProducers--;
+            }
+        }
+    }
+
+    /**
+     * @return the next command the input thread should write, or null if there is none yet.
+     */
+    Command peekUnwritten() {
+        long w = written;
+
+        if (w >= tail.get()) {
+            return null;
+        }
+
+        return slots.get(index(w));
+    }
+
+    /**
+     * @return the sequence number of the command that was written.
+     */
+    long markWritten() {
+        long w = written;
+        written = w + 1;
+        return w;
+    }
+
+    /**
+     * @return the command the output thread is collecting output for, or null if there is none.
+     */
+    Command peekUnread() {
+        long r = read;
+
+        if (r >= tail.get()) {
+            return null;
+        }
+
+        return slots.get(index(r));
+    }
+
+    /**
+     * Releases the slot of the command returned by {@link #peekUnread()}.
+     */
+    void markRead() {
+        long r = read;
+        slots.set(index(r), null);
+        read = r + 1;
+
+        if (waitingProducers > 0) {
+            synchronized (notFull) {
+                notFull.notifyAll();
+            }
+        }
+    }
+
+    boolean hasUnwritten() {
+        return written < tail.get();
+    }
+
+    boolean hasUnread() {
+        return read < tail.get();
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    long getRead() {
+        return read;
+    }
+
+    long getTotal() {
+        return tail.get();
+    }
+
+    /**
+     * @return the sequence number of the command, or -1 if it is not in the ring.
+     */
+    long indexOf(Command command) {
+        long end = tail.get();
+
+        for (long i = read; i < end; i++) {
+            if (slots.get(index(i)) == command) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Stops accepting commands and releases every caller blocked in {@link #put(Command)}.
+     */
+    void close() {
+        closed = true;
+
+        synchronized (notFull) {
+            notFull.notifyAll();
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The output and exit code of a command that was run with {@link Shell#submit(String...)}.
+ */
+public final class CommandResult {
+
+    private final int id;
+
+    private final int exitCode;
+
+    private final List<String> stdout;
+
+    private final List<String> stderr;
+
+    CommandResult(int id, int exitCode, List<String> stdout, List<String> stderr) {
+        this.id = id;
+        this.exitCode = exitCode;
+        this.stdout = Collections.unmodifiableList(stdout);
+        this.stderr = Collections.unmodifiableList(stderr);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * @return <code>true</code> if the command exited with 0.
+     */
+    public boolean isSuccess() {
+        return exitCode == 0;
+    }
+
+    /**
+     * @return the lines the command wrote to stdout, in order.
+     */
+    public List<String> getStdout() {
+        return stdout;
+    }
+
+    /**
+     * @return the lines the command wrote to stderr, in order.
+     */
+    public List<String> getStderr() {
+        return stderr;
+    }
+
+    /**
+     * @return the first line of stdout, or an empty string if there was none.
+     */
+    public String getFirstLine() {
+        return stdout.isEmpty() ? "" : stdout.get(0);
+    }
+
+    @Override
+    public String toString() {
+        return "CommandResult{id=" + id + ", exitCode=" + exitCode + ", stdout=" + stdout + ", stderr=" + stderr + "}";
+    }
+}
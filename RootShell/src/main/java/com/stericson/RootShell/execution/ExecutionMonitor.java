@@ -0,0 +1,87 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import com.stericson.RootShell.RootShell;
+
+import android.os.Build;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the timeouts of every executing command, across all shells, on one shared timer thread.
+ * <p/>
+ * A command registers when it starts executing and cancels its timeout when it finishes, so
+ * a command that finishes in time costs one queue insert and one removal instead of a thread.
+ */
+final class ExecutionMonitor {
+
+    private static final ScheduledThreadPoolExecutor timer;
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Command Timeouts");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+
+        //otherwise finished commands stay in the queue until their deadline
+        if (Build.VERSION.SDK_INT >= 21) {
+            timer.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    private ExecutionMonitor() {
+    }
+
+    /**
+     * Terminates the command if it is still not finished after its timeout.
+     *
+     * @return the handle to cancel the timeout with, or null if the command has no timeout.
+     */
+    static ScheduledFuture<?> watch(final Command command) {
+        if (command.timeout <= 0) {
+            return null;
+        }
+
+        RootShell.log("Command " + command.id + " is waiting for: " + command.timeout);
+
+        return timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (command) {
+                    if (!command.isFinished()) {
+                        RootShell.log("Timeout Exception has occurred for command: " + command.id + ".");
+                        command.terminate("Timeout Exception");
+                    }
+                }
+            }
+        }, command.timeout, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.nio.charset.Charset;
+
+/**
+ * Lays out the bytes the input thread writes to the shell for a command: the command itself,
+ * encoded once per command, inside the lines that run it as a job and report its end.
+ * <p/>
+ * The frame is built in one reusable buffer, so a command goes to the shell in a single write
+ * without a String or an encoder in between. The buffer is only valid until the next frame.
+ */
+final class FrameEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] echoToken;
+
+    private final byte[] jobHead;
+
+    private final byte[] jobHeadEnd = encode(" job $pid\n");
+
+    private final byte[] shellHeadEnd = encode(" job $$\n");
+
+    private final byte[] jobTail = encode("\n) </dev/null &\nwait $!\n");
+
+    private final byte[] exitCodeEnd = encode(" $?\n");
+
+    private final byte[] skippedEnd = encode(" -1\n");
+
+    private byte[] frame = new byte[1024];
+
+    private int length = 0;
+
+    FrameEncoder(String token) {
+        this.echoToken = encode("echo " + token + " ");
+        this.jobHead = encode("(read -r pid rest < /proc/self/stat; echo " + token + " ");
+    }
+
+    /**
+     * The command runs as a job that first reports its own pid, the shell waits for it and then
+     * writes the token with the exit code.
+     */
+    void job(Command command, int id) {
+        length = 0;
+        append(jobHead);
+        append(id);
+        append(jobHeadEnd);
+        append(command.getEncodedCommand());
+        append(jobTail);
+        end(id, exitCodeEnd);
+    }
+
+    /**
+     * The command runs in the shell itself, after the shell reported its own pid so what the command
+     * starts can be killed, and is followed by the token with the exit code.
+     */
+    void inShell(Command command, int id) {
+        length = 0;
+        end(id, shellHeadEnd);
+        append(command.getEncodedCommand());
+        append((byte) '\n');
+        end(id, exitCodeEnd);
+    }
+
+    /**
+     * Only the token, for a command that was terminated before it ran.
+     */
+    void skipped(int id) {
+        length = 0;
+        end(id, skippedEnd);
+    }
+
+    byte[] array() {
+        return frame;
+    }
+
+    int length() {
+        return length;
+    }
+
+    static byte[] encode(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    private void end(int id, byte[] exitCode) {
+        append(echoToken);
+        append(id);
+        append(exitCode);
+    }
+
+    private void append(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, frame, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void append(byte b) {
+        ensure(1);
+        frame[length++] = b;
+    }
+
+    //the id in decimal, without a String
+    private void append(int value) {
+        ensure(11);
+
+        if (value < 0) {
+            frame[length++] = '-';
+            value = -value;
+        }
+
+        int start = length;
+
+        do {
+            frame[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte b = frame[i];
+            frame[i] = frame[j];
+            frame[j] = b;
+        }
+    }
+
+    private void ensure(int count) {
+        if (length + count > frame.length) {
+            byte[] bigger = new byte[Math.max(frame.length * 2, length + count)];
+            System.arraycopy(frame, 0, bigger, 0, length);
+            frame = bigger;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Splits the output of a command into lines and passes them on one at a time, keeping only the
+ * line that is being read in memory.
+ * <p/>
+ * {@link #onLine(String)} is called on the "Shell Output" thread. It may block, for instance on
+ * a bounded queue that another thread drains, and the shell is held back while it does.
+ */
+public abstract class LineSink implements OutputSink {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] line = new byte[256];
+
+    private int length = 0;
+
+    private int lines = 0;
+
+    /**
+     * Called for every line of output, without its line break.
+     */
+    public abstract void onLine(String line) throws IOException;
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        int end = offset + length;
+        int from = offset;
+
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] == '\n') {
+                if (this.length == 0) {
+                    //the whole line is in the buffer, no need to copy it
+                    emit(buffer, from, i);
+                } else {
+                    append(buffer, from, i);
+                    emit(this.line, 0, this.length);
+                    this.length = 0;
+                }
+
+                from = i + 1;
+            }
+        }
+
+        append(buffer, from, end);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (length > 0) {
+            emit(line, 0, length);
+            length = 0;
+        }
+    }
+
+    /**
+     * @return the number of lines passed on so far.
+     */
+    public int getLineCount() {
+        return lines;
+    }
+
+    private void append(byte[] buffer, int from, int to) {
+        int count = to - from;
+
+        if (count <= 0) {
+            return;
+        }
+
+        if (length + count > line.length) {
+            byte[] bigger = new byte[Math.max(line.length * 2, length + count)];
+            System.arraycopy(line, 0, bigger, 0, length);
+            line = bigger;
+        }
+
+        System.arraycopy(buffer, from, line, length, count);
+        length += count;
+    }
+
+    private void emit(byte[] buffer, int from, int to) throws IOException {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+
+        lines++;
+        onLine(new String(buffer, from, to - from, UTF_8));
+    }
+}
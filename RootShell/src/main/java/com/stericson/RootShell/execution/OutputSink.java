@@ -0,0 +1,49 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.io.IOException;
+
+/**
+ * Receives the stdout of a command as it is read from the shell, see
+ * {@link Command#setOutputSink(OutputSink)}.
+ * <p/>
+ * Both methods are called on the "Shell Output" thread. Nothing is read from the shell while
+ * a call is running, so a sink that blocks holds the command back once the pipe of the shell
+ * fills up, instead of the output piling up on the heap. This also holds back every command
+ * queued behind it on the same shell.
+ */
+public interface OutputSink {
+
+    /**
+     * Called with the next piece of output, the buffer is reused as soon as this returns.
+     * If this throws, the rest of the output is dropped and the command is terminated once
+     * the shell is done with it.
+     */
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Called once the command wrote all of its output, before the command completes. Not called
+     * if the command is terminated.
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,89 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import com.stericson.RootShell.exceptions.CommandTerminatedException;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Command behind {@link Shell#submit(String...)}.
+ * <p/>
+ * It collects stdout and stderr separately and completes its future straight from the
+ * "Shell Output" thread, no handler is involved.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+class ResultCommand extends Command {
+
+    private final CompletableFuture<CommandResult> future = new CompletableFuture<CommandResult>();
+
+    private final List<String> stdout = new ArrayList<String>();
+
+    private final List<String> stderr = new ArrayList<String>();
+
+    ResultCommand(int id, int timeout, String... command) {
+        super(id, false, timeout, command);
+    }
+
+    CompletableFuture<CommandResult> getFuture() {
+        return future;
+    }
+
+    @Override
+    public void commandOutput(int id, String line) {
+        stdout.add(line);
+
+        super.commandOutput(id, line);
+    }
+
+    @Override
+    void errorOutput(int id, String line) {
+        stderr.add(line);
+    }
+
+    @Override
+    boolean prepareReplay() {
+        if (!super.prepareReplay()) {
+            return false;
+        }
+
+        //the result holds the output of the last run only
+        stdout.clear();
+        stderr.clear();
+        return true;
+    }
+
+    @Override
+    public void commandCompleted(int id, int exitcode) {
+        future.complete(new CommandResult(id, exitcode, stdout, stderr));
+    }
+
+    @Override
+    public void commandTerminated(int id, String reason) {
+        future.completeExceptionally(new CommandTerminatedException(reason));
+    }
+}
@@ -24,9 +24,12 @@ package com.stericson.RootShell.execution;
 import com.stericson.RootShell.RootShell;
 import com.stericson.RootShell.exceptions.RootDeniedException;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
@@ -34,13 +37,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 public class Shell {
 
@@ -76,6 +83,11 @@ public class Shell {
     //Statics -- visible to all
     private static final String token = "F*D^W@#FGF";
 
+    private static final byte[] EXIT = FrameEncoder.encode("\nexit 0\n");
+
+    //how long a kill waits for the shell to report the pid of the job
+    private static final int KILL_TIMEOUT = 5000;
+
     private static Shell rootShell = null;
 
     private static Shell shell = null;
@@ -90,6 +102,8 @@ public class Shell {
     public static ShellContext defaultContext = ShellContext.NORMAL;
 
     //per shell
+    private final String cmd;
+
     private int shellTimeout = 25000;
 
     private ShellType shellType = null;
@@ -100,46 +114,58 @@ public class Shell {
 
     private final Process proc;
 
-    private final BufferedReader inputStream;
+    private final ShellOutputReader inputStream;
 
     private final BufferedReader errorStream;
 
-    private final OutputStreamWriter outputStream;
+    private final OutputStream outputStream;
 
-    private final List<Command> commands = new ArrayList<Command>();
+    //builds what the input thread writes for a command, only used by that thread
+    private final FrameEncoder frames = new FrameEncoder(token);
+
+    private final CommandQueue commands;
 
     //indicates whether or not to close the shell
-    private boolean close = false;
+    private volatile boolean close = false;
+
+    //the "Shell Input" thread, parked while there is nothing to write
+    private volatile Thread inputThread = null;
 
     private Boolean isSELinuxEnforcing = null;
 
-    public boolean isExecuting = false;
+    public volatile boolean isExecuting = false;
 
-    public boolean isReading = false;
+    public volatile boolean isReading = false;
 
-    public boolean isClosed = false;
+    public volatile boolean isClosed = false;
 
-    private int maxCommands = 5000;
+    //set when the process exited without being asked to, e.g. because the su daemon restarted
+    private volatile boolean lost = false;
 
-    private int read = 0;
+    //takes over the commands of the shell when it is lost, see ShellSupervisor
+    volatile ShellSupervisor supervisor = null;
 
-    private int write = 0;
+    //kills the jobs of a root shell, opened on the first kill so every kill does not ask su again
+    private Shell killShell = null;
+
+    //bumped by the output thread for everything it reads, so a shell that stopped answering can be told apart
+    private volatile int progress = 0;
 
     private int totalExecuted = 0;
 
     private int totalRead = 0;
 
-    private boolean isCleaning = false;
-
     private Shell(String cmd, ShellType shellType, ShellContext shellContext, int shellTimeout) throws IOException, TimeoutException, RootDeniedException {
 
         RootShell.log("Starting shell: " + cmd);
         RootShell.log("Context: " + shellContext.getValue());
         RootShell.log("Timeout: " + shellTimeout);
 
+        this.cmd = cmd;
         this.shellType = shellType;
         this.shellTimeout = shellTimeout > 0 ? shellTimeout : this.shellTimeout;
         this.shellContext = shellContext;
+        this.commands = new CommandQueue(RootShell.defaultCommandQueueCapacity);
 
         if (this.shellContext == ShellContext.NORMAL) {
             this.proc = Runtime.getRuntime().exec(cmd);
@@ -166,9 +192,9 @@ public class Shell {
 
         }
 
-        this.inputStream = new BufferedReader(new InputStreamReader(this.proc.getInputStream(), "UTF-8"));
+        this.inputStream = new ShellOutputReader(this.proc.getInputStream(), token, 8192);
         this.errorStream = new BufferedReader(new InputStreamReader(this.proc.getErrorStream(), "UTF-8"));
-        this.outputStream = new OutputStreamWriter(this.proc.getOutputStream(), "UTF-8");
+        this.outputStream = new BufferedOutputStream(this.proc.getOutputStream(), 8192);
 
         /**
          * Thread responsible for carrying out the requested operations
@@ -232,6 +258,7 @@ public class Shell {
                  */
                 Thread si = new Thread(this.input, "Shell Input");
                 si.setPriority(Thread.NORM_PRIORITY);
+                this.inputThread = si;
                 si.start();
 
                 Thread so = new Thread(this.output, "Shell Output");
@@ -248,8 +275,7 @@ public class Shell {
 
     public Command add(Command command) throws IOException {
         if (this.close) {
-            throw new IllegalStateException(
-                    "Unable to add commands to a closed shell");
+            return handOver(command);
         }
 
         if(command.used) {
@@ -258,39 +284,142 @@ public class Shell {
                     "This command has already been executed. (Don't re-use command instances.)");
         }
 
-        while (this.isCleaning) {
-            //Don't add commands while cleaning
-            ;
+        try {
+            /**
+             * Blocks while the queue is full, the output thread frees a slot
+             * every time a command finishes.
+             */
+            if (!this.commands.put(command)) {
+                return handOver(command);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for room in the command queue");
         }
 
-        this.commands.add(command);
-
         this.notifyThreads();
 
         return command;
     }
 
+    /**
+     * A lost shell that is supervised passes the command on to its replacement, any other closed shell refuses it.
+     */
+    private Command handOver(Command command) throws IOException {
+        ShellSupervisor supervisor = this.supervisor;
+
+        if (!this.lost || supervisor == null) {
+            throw new IllegalStateException(
+                    "Unable to add commands to a closed shell");
+        }
+
+        supervisor.forward(command);
+        return command;
+    }
+
+    private <T extends Command> List<T> handOver(List<T> commands, int from) throws IOException {
+        for (int i = from; i < commands.size(); i++) {
+            handOver(commands.get(i));
+        }
+
+        return commands;
+    }
+
+    /**
+     * Adds several commands at once.
+     * <p/>
+     * The commands take consecutive places in the queue and the input thread is woken up once,
+     * so they are written to the shell, each followed by its own end marker, with a single flush.
+     * Each command still gets its own callbacks and exit code. A batch larger than the queue
+     * capacity is added in pieces of that size.
+     *
+     * @param commands the commands to execute, in order.
+     * @return the same list of commands.
+     */
+    public <T extends Command> List<T> addBatch(List<T> commands) throws IOException {
+        if (this.close) {
+            return handOver(commands, 0);
+        }
+
+        for (Command command : commands) {
+            if (command.used) {
+                throw new IllegalStateException(
+                        "This command has already been executed. (Don't re-use command instances.)");
+            }
+        }
+
+        int capacity = this.commands.capacity();
+
+        for (int from = 0; from < commands.size(); from += capacity) {
+            int count = Math.min(commands.size() - from, capacity);
+
+            try {
+                if (!this.commands.put(commands, from, count)) {
+                    return handOver(commands, from);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for room in the command queue");
+            }
+
+            this.notifyThreads();
+        }
+
+        return commands;
+    }
+
+    /**
+     * Runs the given command, or commands, and collects the output instead of calling back.
+     * <p/>
+     * The returned future is completed from the "Shell Output" thread when the command finishes,
+     * or completed exceptionally with a CommandTerminatedException if the command is terminated.
+     * Errors while adding the command are reported through the future as well.
+     *
+     * @param command the command, or commands, to be executed.
+     * @return a future holding stdout, stderr and the exit code of the command.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public CompletableFuture<CommandResult> submit(String... command) {
+        return submit(0, RootShell.defaultCommandTimeout, command);
+    }
+
+    /**
+     * @param id      the id of the command being executed
+     * @param timeout the time allowed before the shell will give up executing the command.
+     * @param command the command, or commands, to be executed.
+     * @return a future holding stdout, stderr and the exit code of the command.
+     * @see #submit(String...)
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public CompletableFuture<CommandResult> submit(int id, int timeout, String... command) {
+        ResultCommand resultCommand = new ResultCommand(id, timeout, command);
+
+        try {
+            add(resultCommand);
+        } catch (IOException | IllegalStateException e) {
+            resultCommand.getFuture().completeExceptionally(e);
+        }
+
+        return resultCommand.getFuture();
+    }
+
     public final void useCWD(Context context) throws IOException, TimeoutException, RootDeniedException {
         add(
                 new Command(
                         -1,
                         false,
                         "cd " + context.getApplicationInfo().dataDir)
+                        .setRunInShell(true)
         );
     }
 
-    private void cleanCommands() {
-        this.isCleaning = true;
-        int toClean = Math.abs(this.maxCommands - (this.maxCommands / 4));
-        RootShell.log("Cleaning up: " + toClean);
-
-        for (int i = 0; i < toClean; i++) {
-            this.commands.remove(0);
+    private void closeQuietly(final ShellOutputReader input) {
+        try {
+            if (input != null) {
+                input.close();
+            }
+        } catch (Exception ignore) {
         }
-
-        this.read = this.commands.size() - 1;
-        this.write = this.commands.size() - 1;
-        this.isCleaning = false;
     }
 
     private void closeQuietly(final Reader input) {
@@ -302,6 +431,15 @@ public class Shell {
         }
     }
 
+    private void closeQuietly(final OutputStream output) {
+        try {
+            if (output != null) {
+                output.close();
+            }
+        } catch (Exception ignore) {
+        }
+    }
+
     private void closeQuietly(final Writer output) {
         try {
             if (output != null) {
@@ -311,6 +449,13 @@ public class Shell {
         }
     }
 
+    private static void closeQuietly(Shell shell) {
+        try {
+            shell.close();
+        } catch (IOException ignore) {
+        }
+    }
+
     public void close() throws IOException {
         RootShell.log("Request to close shell!");
 
@@ -326,13 +471,19 @@ public class Shell {
 
         }
 
-        synchronized (this.commands) {
-            /**
-             * instruct the two threads monitoring input and output
-             * of the shell to close.
-             */
-            this.close = true;
-            this.notifyThreads();
+        /**
+         * instruct the two threads monitoring input and output
+         * of the shell to close.
+         */
+        this.close = true;
+        this.commands.close();
+        this.notifyThreads();
+
+        synchronized (this) {
+            if (killShell != null) {
+                closeQuietly(killShell);
+                killShell = null;
+            }
         }
 
         RootShell.log("Shell Closed!");
@@ -346,6 +497,106 @@ public class Shell {
         }
     }
 
+    /**
+     * Kills a terminated command in the background, together with whatever it started, so the
+     * shell goes on with the next command. The job of a command that runs as a job is killed as a
+     * whole, of a command that runs in the shell the processes the shell started are killed.
+     * The kill runs with the privileges of the shell, if that fails, or the command does not end
+     * because it only runs builtins, this shell is closed instead. Other shells are not touched.
+     */
+    void killJob(final Command command) {
+        Thread killer = new Thread("Command Kill") {
+            @Override
+            public void run() {
+                try {
+                    //waits until the shell gets to the command, it may still run the ones before it
+                    int pid = command.awaitJobPid(KILL_TIMEOUT);
+
+                    if (pid == 0) {
+                        return;  //it finished on its own in the meantime
+                    }
+
+                    if (pid > 0 && !command.runInShell && kill(pid, false)) {
+                        RootShell.log("Killed the job of command " + command.id);
+                        return;
+                    }
+
+                    /**
+                     * The shell reports the end of a command that runs in it once the processes
+                     * are gone. If the command ends by itself just before, whatever the shell
+                     * starts next in that moment is killed as well.
+                     */
+                    if (pid > 0 && command.runInShell) {
+                        kill(pid, true);
+
+                        if (command.awaitJobEnd(KILL_TIMEOUT)) {
+                            RootShell.log("Killed what command " + command.id + " started");
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    RootShell.log(e.getMessage(), RootShell.LogLevel.ERROR, e);
+                }
+
+                RootShell.log("Could not kill command " + command.id + ", closing its shell.");
+
+                try {
+                    close();
+                } catch (IOException e) {
+                }
+            }
+        };
+        killer.setDaemon(true);
+        killer.start();
+    }
+
+    /**
+     * Stops the process and its descendants first, so none of them can start new ones, then kills them.
+     *
+     * @param children true to kill only the descendants and leave the process itself running.
+     */
+    private boolean kill(int pid, boolean children) throws IOException, InterruptedException {
+        String script = "c() { if command -v pgrep >/dev/null; then pgrep -P $1;"
+                + " else for s in /proc/[0-9]*/stat; do read -r p n t pp r < $s && [ \"$pp\" = $1 ] && echo $p; done; fi; };"
+                + " k() { kill -STOP $1 2>/dev/null; for p in $(c $1); do k $p; done; kill -9 $1 || [ ! -d /proc/$1 ]; };"
+                + (children ? " for p in $(c " + pid + "); do k $p; done" : " k " + pid);
+
+        if (shellType == ShellType.ROOT) {
+            Shell killShell = getKillShell();
+            Command kill = killShell.add(new Command(0, false, 0, script));
+
+            if (!kill.waitForFinish(KILL_TIMEOUT)) {
+                closeQuietly(killShell);
+                return false;
+            }
+
+            return kill.getExitCode() == 0;
+        }
+
+        Process process = Runtime.getRuntime().exec(new String[]{"sh", "-c", script});
+        closeQuietly(new InputStreamReader(process.getInputStream()));
+        closeQuietly(new InputStreamReader(process.getErrorStream()));
+        closeQuietly(new OutputStreamWriter(process.getOutputStream()));
+
+        return process.waitFor() == 0;
+    }
+
+    private synchronized Shell getKillShell() throws IOException {
+        if (killShell == null || !killShell.isAlive()) {
+            try {
+                killShell = Shell.open(cmd, ShellType.ROOT, shellContext, shellTimeout, 0);
+            } catch (TimeoutException e) {
+                throw new IOException("Could not open a root shell to kill with: " + e);
+            } catch (RootDeniedException e) {
+                throw new IOException("Could not open a root shell to kill with: " + e);
+            }
+        }
+
+        return killShell;
+    }
+
     public static void closeCustomShell() throws IOException {
         RootShell.log("Request to close custom shell!");
 
@@ -383,11 +634,105 @@ public class Shell {
     }
 
     public int getCommandQueuePosition(Command cmd) {
-        return this.commands.indexOf(cmd);
+        return (int) this.commands.indexOf(cmd);
+    }
+
+    /**
+     * @return the number of commands that were added to this shell and did not finish yet.
+     */
+    public int getCommandQueueSize() {
+        return (int) (this.commands.getTotal() - this.commands.getRead());
+    }
+
+    /**
+     * @return <code>true</code> while the shell accepts commands and its process has not exited.
+     */
+    public boolean isAlive() {
+        return !close && !isClosed;
+    }
+
+    /**
+     * @return <code>true</code> if the process exited without the shell being closed.
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * @return a number that changes whenever the shell answers anything, output or the end of a command.
+     */
+    int getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the command the shell is waiting on, or null if it has nothing to do.
+     */
+    Command getCurrentCommand() {
+        return commands.peekUnread();
+    }
+
+    /**
+     * Opens another shell like this one, with a single attempt.
+     */
+    Shell reopen() throws IOException, TimeoutException, RootDeniedException {
+        return Shell.open(cmd, shellType, shellContext, shellTimeout, 0);
+    }
+
+    /**
+     * Kills a shell that stopped answering, so it is lost like one whose process died.
+     *
+     * @param pid the pid of the shell process itself, or 0 if it is not known. su may hand our
+     *            pipes to the shell it starts, then killing su alone does not end the shell.
+     */
+    void abandon(int pid) {
+        RootShell.log("Abandoning shell that stopped answering");
+
+        if (pid > 0) {
+            try {
+                kill(pid, false);
+            } catch (IOException e) {
+                RootShell.log("Could not kill shell " + pid + ": " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        proc.destroy();
+    }
+
+    static Shell getShared(ShellType shellType) {
+        switch (shellType) {
+            case ROOT:
+                return Shell.rootShell;
+            case CUSTOM:
+                return Shell.customShell;
+            default:
+                return Shell.shell;
+        }
+    }
+
+    /**
+     * Puts the replacement where the lost shell was shared, unless that shell was closed or replaced meanwhile.
+     *
+     * @return false if the lost shell is not shared anymore.
+     */
+    static synchronized boolean replaceShared(Shell lost, Shell replacement) {
+        if (lost == Shell.rootShell) {
+            Shell.rootShell = replacement;
+        } else if (lost == Shell.shell) {
+            Shell.shell = replacement;
+        } else if (lost == Shell.customShell) {
+            Shell.customShell = replacement;
+        } else {
+            return false;
+        }
+
+        return true;
     }
 
     public String getCommandQueuePositionString(Command cmd) {
-        return "Command is in position " + getCommandQueuePosition(cmd) + " currently executing command at position " + this.write + " and the number of commands is " + commands.size();
+        return "Command is in position " + getCommandQueuePosition(cmd) + " currently executing command at position " + this.commands.getWritten() + " and the number of commands is " + commands.getTotal();
     }
 
     public static Shell getOpenShell() {
@@ -561,30 +906,14 @@ public class Shell {
             try {
                 while (true) {
 
-                    synchronized (commands) {
-                        /**
-                         * While loop is used in the case that notifyAll is called
-                         * and there are still no commands to be written, a rare
-                         * case but one that could happen.
-                         */
-                        while (!close && write >= commands.size()) {
-                            isExecuting = false;
-                            commands.wait();
-                        }
-                    }
-
-                    if (write >= maxCommands) {
-
-                        /**
-                         * wait for the read to catch up.
-                         */
-                        while (read != write) {
-                            RootShell.log("Waiting for read and write to catch up before cleanup.");
-                        }
-                        /**
-                         * Clean up the commands, stay neat.
-                         */
-                        cleanCommands();
+                    /**
+                     * While loop is used because park may return spuriously, and an
+                     * unpark that happens before we park is remembered by the thread's
+                     * permit, so a command added in between is never missed.
+                     */
+                    while (!close && commands.peekUnwritten() == null) {
+                        isExecuting = false;
+                        LockSupport.park(this);
                     }
 
                     /**
@@ -593,58 +922,76 @@ public class Shell {
                      * We write the command followed by the token to indicate
                      * the end of the command execution
                      */
-                    if (write < commands.size()) {
+                    Command cmd = commands.peekUnwritten();
+
+                    if (cmd != null) {
                         isExecuting = true;
-                        Command cmd = commands.get(write);
 
-                        if(null != cmd)
-                        {
-                            cmd.startExecution();
-                            RootShell.log("Executing: " + cmd.getCommand() + " with context: " + shellContext);
+                        if (cmd.isFinished()) {
+                            //terminated while it was queued, only its end is written
+                            RootShell.log("Skipping terminated command: " + cmd.id);
+                            frames.skipped(totalExecuted);
+                        } else {
+                            cmd.startExecution(Shell.this);
 
-                            //write the command
-                            outputStream.write(cmd.getCommand());
-                            outputStream.flush();
+                            if (RootShell.debugMode) {
+                                RootShell.log("Executing: " + cmd.getCommand() + " with context: " + shellContext);
+                            }
 
-                            //write the token...
-                            String line = "\necho " + token + " " + totalExecuted + " $?\n";
-                            outputStream.write(line);
-                            outputStream.flush();
+                            if (cmd.runInShell) {
+                                //the command followed by the token
+                                frames.inShell(cmd, totalExecuted);
+                            } else {
+                                /**
+                                 * The command runs as a job that first reports its own pid, so it can be
+                                 * killed on its own. The shell waits for it and then writes the token.
+                                 */
+                                frames.job(cmd, totalExecuted);
+                            }
+                        }
+
+                        //the whole frame in one write
+                        outputStream.write(frames.array(), 0, frames.length());
 
-                            write++;
-                            totalExecuted++;
+                        commands.markWritten();
+                        totalExecuted++;
+
+                        /**
+                         * Commands that are already queued, e.g. the rest of a batch, go into the
+                         * same buffer, the shell only gets flushed once we have caught up.
+                         */
+                        if (commands.peekUnwritten() == null) {
+                            outputStream.flush();
                         }
                     } else if (close) {
                         /**
                          * close the thread, the shell is closing.
                          */
                         isExecuting = false;
-                        outputStream.write("\nexit 0\n");
+                        outputStream.write(EXIT);
                         outputStream.flush();
                         RootShell.log("Closing shell");
                         return;
                     }
                 }
-            } catch (IOException | InterruptedException e) {
+            } catch (IOException e) {
                 RootShell.log(e.getMessage(), RootShell.LogLevel.ERROR, e);
             }
             finally {
-                write = 0;
                 closeQuietly(outputStream);
             }
         }
     };
 
+    /**
+     * Wakes the "Shell Input" thread up so it picks up new commands or notices the shell is closing.
+     */
     protected void notifyThreads() {
-        Thread t = new Thread() {
-            public void run() {
-                synchronized (commands) {
-                    commands.notifyAll();
-                }
-            }
-        };
+        Thread t = this.inputThread;
 
-        t.start();
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
     }
 
     /**
@@ -658,28 +1005,34 @@ public class Shell {
                 Command command = null;
 
                 //as long as there is something to read, we will keep reading.
-                while (!close || inputStream.ready() || read < commands.size()) {
+                while (!close || inputStream.ready() || commands.hasUnread()) {
+                    if (command == null) {
+                        command = commands.peekUnread();
+                    }
+
                     isReading = false;
-                    String outputLine = inputStream.readLine();
+                    int result = inputStream.read(command != null && command.outputSink != null);
                     isReading = true;
 
                     /**
                      * If we receive EOF then the shell closed?
                      */
-                    if (outputLine == null) {
+                    if (result == ShellOutputReader.EOF) {
                         break;
                     }
 
+                    progress++;
+
                     if (command == null) {
-                        if (read >= commands.size()) {
+                        command = commands.peekUnread();
+
+                        if (command == null) {
                             if (close) {
                                 break;
                             }
 
                             continue;
                         }
-
-                        command = commands.get(read);
                     }
 
                     /**
@@ -687,82 +1040,78 @@ public class Shell {
                      *
                      * if the token is present then the command has finished execution.
                      */
-                    int pos = -1;
-
-                    pos = outputLine.indexOf(token);
-
-                    if (pos == -1) {
+                    if (result != ShellOutputReader.MARKER) {
                         /**
                          * send the output for the implementer to process
                          */
-                        command.output(command.id, outputLine);
-                    } else if (pos > 0) {
+                        deliver(command, false);
+                        continue;
+                    }
+
+                    if (inputStream.length() > 0) {
                         /**
                          * token is suffix of output, send output part to implementer
                          */
-                        RootShell.log("Found token, line: " + outputLine);
-                        command.output(command.id, outputLine.substring(0, pos));
+                        RootShell.log("Found token after output");
+                        deliver(command, true);
                     }
 
-                    if (pos >= 0) {
-                        outputLine = outputLine.substring(pos);
-                        String fields[] = outputLine.split(" ");
+                    if (inputStream.isJobMarker()) {
+                        if (inputStream.getMarkerId() == totalRead) {
+                            command.jobStarted(inputStream.getMarkerPid());
+                        }
 
-                        if (fields.length >= 2 && fields[1] != null) {
-                            int id = 0;
+                        continue;
+                    }
 
-                            try {
-                                id = Integer.parseInt(fields[1]);
-                            } catch (NumberFormatException e) {
-                            }
+                    if (inputStream.getMarkerId() == totalRead) {
+                        command.jobFinished();
+                        processErrors(command);
 
-                            int exitCode = -1;
+
+                        /**
+                         * wait for output to be processed, the last callback wakes us up.
+                         *
+                         * not with a callback executor, it gets the end of the command after the output anyway
+                         */
+                        if (command.dispatcher == null && command.totalOutput > command.totalOutputProcessed) {
+                            RootShell.log("Waiting for output to be processed. " + command.totalOutputProcessed + " Of " + command.totalOutput);
 
                             try {
-                                exitCode = Integer.parseInt(fields[2]);
-                            } catch (NumberFormatException e) {
+                                command.awaitOutputProcessed();
+                            } catch (InterruptedException e) {
+                                RootShell.log(e.getMessage());
+                                Thread.currentThread().interrupt();
                             }
+                        }
 
-                            if (id == totalRead) {
-                                processErrors(command);
+                        RootShell.log("Read all output");
 
+                        /**
+                         * A command that was terminated is done already, its exit code stays -1 and
+                         * its sink is not finished. Holding the lock keeps it from being terminated
+                         * while that is decided.
+                         */
+                        synchronized (command) {
+                            if (!command.terminated) {
+                                command.setExitCode(inputStream.getMarkerExitCode());
 
-                                /**
-                                 * wait for output to be processed...
-                                 *
-                                 */
-                                int iterations = 0;
-                                while (command.totalOutput > command.totalOutputProcessed) {
-
-                                    if(iterations == 0)
-                                    {
-                                        iterations++;
-                                        RootShell.log("Waiting for output to be processed. " + command.totalOutputProcessed + " Of " + command.totalOutput);
-                                    }
-
-                                    try {
-
-                                        synchronized (this)
-                                        {
-                                            this.wait(2000);
-                                        }
-                                    } catch (Exception e) {
-                                        RootShell.log(e.getMessage());
-                                    }
+                                if (command.outputSink != null) {
+                                    command.finishOutput();
                                 }
 
-                                RootShell.log("Read all output");
-
-                                command.setExitCode(exitCode);
-                                command.commandFinished();
-
-                                command = null;
-
-                                read++;
-                                totalRead++;
-                                continue;
+                                if (command.outputSinkError != null) {
+                                    command.terminated("Output sink failed: " + command.outputSinkError.getMessage());
+                                } else {
+                                    command.commandFinished();
+                                }
                             }
                         }
+
+                        command = null;
+
+                        commands.markRead();
+                        totalRead++;
                     }
                 }
 
@@ -772,12 +1121,40 @@ public class Shell {
                 } catch (Exception e) {
                 }
 
-                while (read < commands.size()) {
+                ShellSupervisor supervisor = null;
+
+                if (!close) {
+                    /**
+                     * The shell is gone without being asked to, it takes no more commands. When it is
+                     * supervised the commands that can safely run again go to its replacement.
+                     */
+                    RootShell.log("Shell lost!");
+                    lost = true;
+                    close = true;
+                    commands.close();
+                    notifyThreads();
+                    supervisor = Shell.this.supervisor;
+                }
+
+                List<Command> replay = new ArrayList<Command>();
+
+                while (commands.hasUnread()) {
+                    if (command == null) {
+                        command = commands.peekUnread();
+                    }
+
                     if (command == null) {
-                        command = commands.get(read);
+                        //claimed by a caller but never published, nothing to report
+                        commands.markRead();
+                        continue;
                     }
 
-                    if(command.totalOutput < command.totalOutputProcessed)
+                    boolean written = commands.getRead() < commands.getWritten();
+
+                    if (supervisor != null && (!written || command.idempotent) && command.prepareReplay()) {
+                        replay.add(command);
+                    }
+                    else if(command.totalOutput < command.totalOutputProcessed)
                     {
                         command.terminated("All output not processed!");
                         command.terminated("Did you forget the super.commandOutput call or are you waiting on the command object?");
@@ -788,10 +1165,12 @@ public class Shell {
                     }
 
                     command = null;
-                    read++;
+                    commands.markRead();
                 }
 
-                read = 0;
+                if (supervisor != null) {
+                    supervisor.shellLost(Shell.this, replay);
+                }
 
             } catch (IOException e) {
                 RootShell.log(e.getMessage(), RootShell.LogLevel.ERROR, e);
@@ -807,6 +1186,26 @@ public class Shell {
         }
     };
 
+    /**
+     * Hands the segment the reader is on to the command, as raw bytes to a command with an
+     * output sink and as a decoded line to any other command.
+     *
+     * @param exact true if the segment ends where the output ends, false if it is a line and its
+     *              line break belongs to the output as well.
+     */
+    private void deliver(Command command, boolean exact) {
+        if (command.terminated) {
+            return;  //whatever a killed job still wrote
+        }
+
+        if (command.outputSink != null) {
+            int end = exact ? inputStream.end() : inputStream.rawEnd();
+            command.output(inputStream.array(), inputStream.start(), end - inputStream.start());
+        } else {
+            command.output(command.id, inputStream.decode());
+        }
+    }
+
     public void processErrors(Command command) {
         try {
             while (errorStream.ready() && command != null) {
@@ -820,9 +1219,11 @@ public class Shell {
                 }
 
                 /**
-                 * send the output for the implementer to process
+                 * send the output for the implementer to process, unless the command was terminated
                  */
-                command.output(command.id, line);
+                if (!command.terminated) {
+                    command.errorOutput(command.id, line);
+                }
             }
         } catch (Exception e) {
             RootShell.log(e.getMessage(), RootShell.LogLevel.ERROR, e);
@@ -853,31 +1254,10 @@ public class Shell {
         // keep prompting the user until they accept for x amount of times...
         int retries = 0;
 
-        if (Shell.rootShell == null) {
+        if (Shell.rootShell == null || isReplaceable(Shell.rootShell)) {
 
             RootShell.log("Starting Root Shell!");
-            String cmd = "su";
-            while (Shell.rootShell == null) {
-                try {
-                    RootShell.log("Trying to open Root Shell, attempt #" + retries);
-                    Shell.rootShell = new Shell(cmd, ShellType.ROOT, shellContext, timeout);
-                } catch (IOException e) {
-                    if (retries++ >= retry) {
-                        RootShell.log("IOException, could not start shell");
-                        throw e;
-                    }
-                } catch (RootDeniedException e) {
-                    if (retries++ >= retry) {
-                        RootShell.log("RootDeniedException, could not start shell");
-                        throw e;
-                    }
-                } catch (TimeoutException e) {
-                    if (retries++ >= retry) {
-                        RootShell.log("TimeoutException, could not start shell");
-                        throw e;
-                    }
-                }
-            }
+            Shell.rootShell = Shell.open(RootShell.rootShellCommand, ShellType.ROOT, shellContext, timeout, retry);
         } else if (Shell.rootShell.shellContext != shellContext) {
             try {
                 RootShell.log("Context is different than open shell, switching context... " + Shell.rootShell.shellContext + " VS " + shellContext);
@@ -905,13 +1285,54 @@ public class Shell {
         return Shell.rootShell;
     }
 
+    /**
+     * Opens a new shell that is not shared through the static root, normal or custom shell.
+     * Used by ShellPool, the caller owns the shell and has to close it.
+     *
+     * @param cmd   the shell to run, RootShell.rootShellCommand for a root shell.
+     * @param retry how many more times to try if the shell cannot be opened.
+     */
+    static Shell open(String cmd, ShellType shellType, ShellContext shellContext, int timeout, int retry) throws IOException, TimeoutException, RootDeniedException {
+        // keep prompting the user until they accept for x amount of times...
+        int retries = 0;
+
+        while (true) {
+            try {
+                RootShell.log("Trying to open " + shellType + " Shell, attempt #" + retries);
+                return new Shell(cmd, shellType, shellContext, timeout);
+            } catch (IOException e) {
+                if (retries++ >= retry) {
+                    RootShell.log("IOException, could not start shell");
+                    throw e;
+                }
+            } catch (RootDeniedException e) {
+                if (retries++ >= retry) {
+                    RootShell.log("RootDeniedException, could not start shell");
+                    throw e;
+                }
+            } catch (TimeoutException e) {
+                if (retries++ >= retry) {
+                    RootShell.log("TimeoutException, could not start shell");
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * A lost shell is opened again on its next use, unless a supervisor is opening it already.
+     */
+    private static boolean isReplaceable(Shell shell) {
+        return shell.lost && shell.supervisor == null;
+    }
+
     public static Shell startCustomShell(String shellPath) throws IOException, TimeoutException, RootDeniedException {
         return Shell.startCustomShell(shellPath, 0);
     }
 
     public static Shell startCustomShell(String shellPath, int timeout) throws IOException, TimeoutException, RootDeniedException {
 
-        if (Shell.customShell == null) {
+        if (Shell.customShell == null || isReplaceable(Shell.customShell)) {
             RootShell.log("Starting Custom Shell!");
             Shell.customShell = new Shell(shellPath, ShellType.CUSTOM, ShellContext.NORMAL, timeout);
         } else {
@@ -928,7 +1349,7 @@ public class Shell {
     public static Shell startShell(int timeout) throws IOException, TimeoutException {
 
         try {
-            if (Shell.shell == null) {
+            if (Shell.shell == null || isReplaceable(Shell.shell)) {
                 RootShell.log("Starting Shell!");
                 Shell.shell = new Shell("/system/bin/sh", ShellType.NORMAL, ShellContext.NORMAL, timeout);
             } else {
@@ -982,7 +1403,7 @@ public class Shell {
              * it by setting the value of the variable exit
              */
             try {
-                shell.outputStream.write("echo Started\n");
+                shell.outputStream.write(FrameEncoder.encode("echo Started\n"));
                 shell.outputStream.flush();
 
                 while (true) {
@@ -1027,8 +1448,8 @@ public class Shell {
                 }
                 field.setAccessible(true);
                 int pid = (Integer) field.get(shell.proc);
-                shell.outputStream.write("(echo -17 > /proc/" + pid + "/oom_adj) &> /dev/null\n");
-                shell.outputStream.write("(echo -17 > /proc/$$/oom_adj) &> /dev/null\n");
+                shell.outputStream.write(FrameEncoder.encode("(echo -17 > /proc/" + pid + "/oom_adj) &> /dev/null\n"
+                        + "(echo -17 > /proc/$$/oom_adj) &> /dev/null\n"));
                 shell.outputStream.flush();
             } catch (Exception e) {
                 e.printStackTrace();
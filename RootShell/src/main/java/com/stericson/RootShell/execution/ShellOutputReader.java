@@ -0,0 +1,338 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the stdout of a shell straight from the byte stream into one reusable buffer.
+ * <p/>
+ * Each call to {@link #read(boolean)} finds the next segment of output, either a line or, for
+ * binary commands, a run of raw bytes, and stops in front of the end of command marker. Nothing
+ * is decoded until {@link #decode()} is called, so lines nobody is waiting for cost no String.
+ * <p/>
+ * A segment points into the buffer and is only valid until the next call to read.
+ */
+final class ShellOutputReader {
+
+    static final int EOF = -1;
+
+    //the segment is a whole line, without its line break
+    static final int LINE = 0;
+
+    //the segment is raw output, more may follow
+    static final int DATA = 1;
+
+    //the segment is the output in front of the marker, the marker line has been consumed
+    static final int MARKER = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    //what follows the id of a marker that reports the pid of a job instead of its end
+    private static final byte[] JOB = "job ".getBytes(UTF_8);
+
+    private final InputStream in;
+
+    private final byte[] marker;
+
+    //unread bytes are between position and limit
+    private ByteBuffer buffer;
+
+    private int start = 0;
+
+    private int end = 0;
+
+    //end of the segment including its line break, for binary commands that get a line
+    private int rawEnd = 0;
+
+    private int markerId = -1;
+
+    private int markerExitCode = -1;
+
+    private boolean jobMarker = false;
+
+    private int markerPid = -1;
+
+    ShellOutputReader(InputStream in, String marker, int capacity) {
+        this.in = in;
+        this.marker = marker.getBytes(UTF_8);
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, this.marker.length * 2));
+        this.buffer.limit(0);
+    }
+
+    /**
+     * Reads the next segment of output, blocking until there is one.
+     *
+     * @param binary when true the output is handed out as it arrives instead of line by line,
+     *               and the marker is looked for anywhere rather than only on a line.
+     * @return {@link #LINE}, {@link #DATA}, {@link #MARKER} or {@link #EOF}.
+     */
+    int read(boolean binary) throws IOException {
+        while (true) {
+            byte[] b = buffer.array();
+            int from = buffer.position();
+            int to = buffer.limit();
+
+            if (!binary) {
+                int nl = indexOf(b, from, to, (byte) '\n');
+
+                if (nl != -1) {
+                    int m = indexOf(b, from, nl, marker);
+
+                    buffer.position(nl + 1);
+                    start = from;
+
+                    if (m != -1) {
+                        end = rawEnd = m;
+                        parseMarker(b, m + marker.length, nl);
+                        return MARKER;
+                    }
+
+                    end = nl > from && b[nl - 1] == '\r' ? nl - 1 : nl;
+                    rawEnd = nl + 1;
+                    return LINE;
+                }
+            } else {
+                int m = indexOf(b, from, to, marker);
+
+                if (m != -1) {
+                    int nl = indexOf(b, m, to, (byte) '\n');
+                    start = from;
+                    end = rawEnd = m;
+
+                    if (nl != -1) {
+                        buffer.position(nl + 1);
+                        parseMarker(b, m + marker.length, nl);
+                        return MARKER;
+                    } else if (m > from) {
+                        buffer.position(m);
+                        return DATA;
+                    }
+                    //the marker is next but the rest of its line did not arrive yet
+                } else {
+                    //hold back what could be the start of a marker
+                    int safe = to - (marker.length - 1);
+
+                    if (safe > from) {
+                        start = from;
+                        end = rawEnd = safe;
+                        buffer.position(safe);
+                        return DATA;
+                    }
+                }
+            }
+
+            if (!fill()) {
+                if (buffer.hasRemaining()) {
+                    start = buffer.position();
+                    end = rawEnd = buffer.limit();
+                    buffer.position(end);
+                    return binary ? DATA : LINE;
+                }
+
+                return EOF;
+            }
+        }
+    }
+
+    /**
+     * Reads and decodes the next line, used while the shell is starting up.
+     *
+     * @return the line, or null at the end of the stream.
+     */
+    String readLine() throws IOException {
+        if (read(false) == EOF) {
+            return null;
+        }
+
+        return decode();
+    }
+
+    /**
+     * @return true if a read would not have to wait for the shell.
+     */
+    boolean ready() throws IOException {
+        return buffer.hasRemaining() || in.available() > 0;
+    }
+
+    byte[] array() {
+        return buffer.array();
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    int rawEnd() {
+        return rawEnd;
+    }
+
+    int length() {
+        return end - start;
+    }
+
+    String decode() {
+        return new String(buffer.array(), start, end - start, UTF_8);
+    }
+
+    int getMarkerId() {
+        return markerId;
+    }
+
+    int getMarkerExitCode() {
+        return markerExitCode;
+    }
+
+    /**
+     * @return true if the last marker reported the start of a job rather than the end of a command.
+     */
+    boolean isJobMarker() {
+        return jobMarker;
+    }
+
+    int getMarkerPid() {
+        return markerPid;
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, growing it if it is full, and reads
+     * whatever the shell has written since.
+     *
+     * @return false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        buffer.compact();
+
+        if (!buffer.hasRemaining()) {
+            //a line longer than the buffer
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+
+        int n = in.read(buffer.array(), buffer.position(), buffer.remaining());
+
+        if (n > 0) {
+            buffer.position(buffer.position() + n);
+        }
+
+        buffer.flip();
+        return n > 0;
+    }
+
+    /**
+     * The marker line is "<marker> <id> <exit code>" at the end of a command, or
+     * "<marker> <id> job <pid>" when a command started as a job.
+     */
+    private void parseMarker(byte[] b, int from, int to) {
+        if (to > from && b[to - 1] == '\r') {
+            to--;
+        }
+
+        int idStart = from + 1;
+        int idEnd = idStart;
+
+        while (idEnd < to && b[idEnd] != ' ') {
+            idEnd++;
+        }
+
+        markerId = parseInt(b, idStart, idEnd, -1);
+        jobMarker = startsWith(b, idEnd + 1, to, JOB);
+
+        if (jobMarker) {
+            markerPid = parseInt(b, idEnd + 1 + JOB.length, to, -1);
+        } else {
+            markerExitCode = parseInt(b, idEnd + 1, to, -1);
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int from, int to, byte[] value) {
+        if (to - from < value.length) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length; i++) {
+            if (b[from + i] != value[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int parseInt(byte[] b, int start, int end, int fallback) {
+        if (start >= end) {
+            return fallback;
+        }
+
+        int value = 0;
+
+        for (int i = start; i < end; i++) {
+            if (b[i] < '0' || b[i] > '9') {
+                return fallback;
+            }
+
+            value = value * 10 + (b[i] - '0');
+        }
+
+        return value;
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOf(byte[] b, int from, int to, byte[] value) {
+        int last = to - value.length;
+
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int j = 0; j < value.length; j++) {
+                if (b[i + j] != value[j]) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+}
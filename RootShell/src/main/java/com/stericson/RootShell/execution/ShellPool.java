@@ -0,0 +1,314 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import com.stericson.RootShell.RootShell;
+import com.stericson.RootShell.exceptions.RootDeniedException;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A fixed number of warm shells that independent callers can run commands on in parallel.
+ * <p/>
+ * The static root shell serialises every caller behind one su process. A pool opens its own
+ * shells, which are not shared with {@link Shell#startRootShell()}, and hands each command to
+ * the shell with the fewest unfinished commands, preferring idle shells. Shells that died are
+ * reopened the next time a command needs them.
+ * <p/>
+ * You are responsible for closing the pool when you are done with it.
+ */
+public class ShellPool {
+
+    private final Shell[] shells;
+
+    private final String cmd;
+
+    private final Shell.ShellType shellType;
+
+    private final Shell.ShellContext shellContext;
+
+    private final int timeout;
+
+    private boolean closed = false;
+
+    private ShellPool(String cmd, Shell.ShellType shellType, Shell.ShellContext shellContext, int size, int timeout) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A shell pool needs at least one shell: " + size);
+        }
+
+        this.shells = new Shell[size];
+        this.cmd = cmd;
+        this.shellType = shellType;
+        this.shellContext = shellContext;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Opens a pool of root shells. Every shell is opened right away, so root is requested here
+     * and not on the first command.
+     *
+     * @param size    the number of root shells to keep open.
+     * @param timeout an <code>int</code> to Indicate the length of time to wait before giving up on opening a shell.
+     */
+    public static ShellPool startRootPool(int size, int timeout) throws IOException, TimeoutException, RootDeniedException {
+        ShellPool pool = new ShellPool(RootShell.rootShellCommand, Shell.ShellType.ROOT, Shell.defaultContext, size, timeout);
+        pool.warmUp();
+        return pool;
+    }
+
+    public static ShellPool startRootPool(int size) throws IOException, TimeoutException, RootDeniedException {
+        return startRootPool(size, 0);
+    }
+
+    /**
+     * Opens a pool of shells running the given binary.
+     *
+     * @param shellPath a <code>String</code> to Indicate the path to the shell that you want to open.
+     * @param size      the number of shells to keep open.
+     * @param timeout   an <code>int</code> to Indicate the length of time before giving up on opening a shell.
+     */
+    public static ShellPool startCustomPool(String shellPath, int size, int timeout) throws IOException, TimeoutException, RootDeniedException {
+        ShellPool pool = new ShellPool(shellPath, Shell.ShellType.CUSTOM, Shell.ShellContext.NORMAL, size, timeout);
+        pool.warmUp();
+        return pool;
+    }
+
+    private void warmUp() throws IOException, TimeoutException, RootDeniedException {
+        try {
+            for (int i = 0; i < shells.length; i++) {
+                shells[i] = Shell.open(cmd, shellType, shellContext, timeout, 3);
+            }
+        } catch (IOException | TimeoutException | RootDeniedException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int size() {
+        return shells.length;
+    }
+
+    /**
+     * Picks the shell for the next command: an idle shell if there is one, otherwise the shell
+     * with the fewest unfinished commands. A dead shell is reopened before it is used.
+     */
+    public synchronized Shell getShell() throws IOException, TimeoutException, RootDeniedException {
+        if (closed) {
+            throw new IllegalStateException("Unable to use a closed shell pool");
+        }
+
+        int best = -1;
+        int bestDepth = Integer.MAX_VALUE;
+
+        for (int i = 0; i < shells.length; i++) {
+            Shell shell = shells[i];
+
+            if (shell == null || !shell.isAlive()) {
+                continue;
+            }
+
+            int depth = shell.getCommandQueueSize();
+
+            if (depth < bestDepth) {
+                best = i;
+                bestDepth = depth;
+
+                if (depth == 0) {
+                    break;
+                }
+            }
+        }
+
+        if (bestDepth > 0) {
+            //a dead slot beats a busy shell
+            for (int i = 0; i < shells.length; i++) {
+                if (shells[i] == null || !shells[i].isAlive()) {
+                    RootShell.log("Reopening shell " + i + " of the pool");
+                    shells[i] = Shell.open(cmd, shellType, shellContext, timeout, 3);
+                    return shells[i];
+                }
+            }
+        }
+
+        return shells[best];
+    }
+
+    /**
+     * Adds the command to the least loaded shell of the pool.
+     *
+     * @return the shell the command was added to.
+     */
+    public Shell add(Command command) throws IOException, TimeoutException, RootDeniedException {
+        Shell shell = getShell();
+        shell.add(command);
+        return shell;
+    }
+
+    /**
+     * Runs the command on the least loaded shell of the pool.
+     *
+     * @see Shell#submit(String...)
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    public CompletableFuture<CommandResult> submit(String... command) {
+        try {
+            return getShell().submit(command);
+        } catch (IOException | TimeoutException | RootDeniedException | IllegalStateException e) {
+            CompletableFuture<CommandResult> failed = new CompletableFuture<CommandResult>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Checks every shell within timeout ms. An idle shell has to answer a no-op command in time.
+     * A busy shell is not asked, the no-op would wait behind its work, it is healthy as long as it
+     * reads or writes anything, or the command it runs is still within its own timeout.
+     * Shells that are closed or found unhealthy are closed, and reopened the next time they are needed.
+     *
+     * @param timeout how long to wait for each shell, in ms.
+     * @return for every shell of the pool, in order, whether it is healthy.
+     */
+    public boolean[] checkHealth(int timeout) {
+        Shell[] snapshot;
+
+        synchronized (this) {
+            snapshot = shells.clone();
+        }
+
+        Command[] probes = new Command[snapshot.length];
+        int[] progress = new int[snapshot.length];
+
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] != null && snapshot[i].isAlive()) {
+                progress[i] = snapshot[i].getProgress();
+
+                if (snapshot[i].getCommandQueueSize() > 0) {
+                    continue;  //busy, judged by its progress
+                }
+
+                try {
+                    //no timeout of its own, the deadline below decides
+                    probes[i] = snapshot[i].add(new Command(0, false, 0, "true"));
+                } catch (IOException | IllegalStateException e) {
+                    RootShell.log("Health probe could not be added to shell " + i + ": " + e);
+                }
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+        boolean[] healthy = new boolean[snapshot.length];
+
+        for (int i = 0; i < snapshot.length; i++) {
+            if (snapshot[i] == null || !snapshot[i].isAlive()) {
+                healthy[i] = false;
+            } else if (probes[i] != null && waitFor(probes[i], deadline) && probes[i].getExitCode() == 0) {
+                healthy[i] = true;
+            } else {
+                //busy from the start, or it became busy before the probe was written
+                healthy[i] = isWorking(snapshot[i], progress[i], probes[i], deadline);
+            }
+
+            if (!healthy[i] && snapshot[i] != null) {
+                RootShell.log("Shell " + i + " of the pool is not healthy, closing it");
+                try {
+                    snapshot[i].close();
+                } catch (IOException e) {
+                    RootShell.log(e.getMessage());
+                }
+            }
+        }
+
+        return healthy;
+    }
+
+    /**
+     * Waits until the deadline for the shell to show it is still working.
+     *
+     * @param probe the health probe that was added to the shell, or null.
+     */
+    private static boolean isWorking(Shell shell, int progress, Command probe, long deadline) {
+        long remaining;
+
+        while ((remaining = deadline - System.currentTimeMillis()) > 0 && shell.getProgress() == progress) {
+            try {
+                Thread.sleep(Math.min(remaining, 50));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        if (shell.getProgress() != progress) {
+            return true;
+        }
+
+        Command current = shell.getCurrentCommand();
+
+        if (current == probe) {
+            return false;  //nothing ahead of the probe and still no answer
+        }
+
+        //a long running command that says nothing, its own timeout takes care of it
+        return current != null && !current.isFinished();
+    }
+
+    private static boolean waitFor(Command command, long deadline) {
+        synchronized (command) {
+            long remaining;
+
+            while (!command.isFinished() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    command.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            return command.isFinished();
+        }
+    }
+
+    /**
+     * Closes every shell of the pool.
+     */
+    public synchronized void close() {
+        closed = true;
+
+        for (int i = 0; i < shells.length; i++) {
+            if (shells[i] != null) {
+                try {
+                    shells[i].close();
+                } catch (IOException e) {
+                    RootShell.log(e.getMessage());
+                }
+                shells[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,571 @@
+/*
+ * This file is part of the RootShell Project: http://code.google.com/p/RootShell/
+ *
+ * Copyright (c) 2014 Stephen Erickson, Chris Ravenscroft
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+package com.stericson.RootShell.execution;
+
+import com.stericson.RootShell.RootShell;
+import com.stericson.RootShell.exceptions.RootDeniedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Keeps one of the shared shells, the root, normal or custom shell, working for an app that runs for a long time.
+ * <p/>
+ * While the shell is idle it gets a heartbeat every interval. The shell is lost when its process exits,
+ * e.g. because the su daemon restarted, or when it stops answering: a heartbeat is not back in time, or the
+ * shell makes no progress after the command it is waiting on was terminated. A lost shell is replaced where
+ * it is shared, so RootShell.getShell returns the replacement, and commands added to the lost shell go to the
+ * replacement as well.
+ * <p/>
+ * Commands that were not written to the lost shell yet and commands marked with {@link Command#setIdempotent(boolean)}
+ * run again on the replacement, any other command the lost shell was running is terminated.
+ * <p/>
+ * A replacement that cannot be opened, or that is lost again before it answered a heartbeat, is retried after a
+ * delay that doubles every time, so su is not asked again and again while it keeps failing. Optionally a standby
+ * shell is kept open to take over at once, at the cost of a second shell.
+ */
+public final class ShellSupervisor {
+
+    private static final int HEARTBEAT_ID = -2;
+
+    private static final long MIN_BACKOFF = 1000;
+
+    private static final long MAX_BACKOFF = 60000;
+
+    private static final ScheduledThreadPoolExecutor timer;
+
+    private static final Map<Shell.ShellType, ShellSupervisor> supervisors =
+            new EnumMap<Shell.ShellType, ShellSupervisor>(Shell.ShellType.class);
+
+    static {
+        timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Shell Supervisor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private final Shell.ShellType shellType;
+
+    private final boolean standbyEnabled;
+
+    private final int stallTimeout;
+
+    private final ScheduledFuture<?> heartbeats;
+
+    //guarded by this
+    private Shell current = null;
+
+    private Shell replacing = null;
+
+    private Shell standby = null;
+
+    private final List<Pending> pending = new ArrayList<Pending>();
+
+    private boolean respawnScheduled = false;
+
+    private boolean answered = false;
+
+    private boolean stopped = false;
+
+    private int failures = 0;
+
+    private int respawns = 0;
+
+    //only used on the timer thread
+    private Heartbeat heartbeat = null;
+
+    private long heartbeatSent = 0;
+
+    private int shellPid = 0;
+
+    private int lastProgress = 0;
+
+    private long lastProgressAt = 0;
+
+    private int standbyFailures = 0;
+
+    private long standbyRetryAt = 0;
+
+    private ShellSupervisor(Shell.ShellType shellType, boolean standby, int interval, int stallTimeout) {
+        this.shellType = shellType;
+        this.standbyEnabled = standby;
+        this.stallTimeout = stallTimeout;
+        this.heartbeats = timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Supervises the shared shell of the given type, with a heartbeat every 5 seconds and no standby.
+     *
+     * @see #supervise(Shell.ShellType, boolean, int, int)
+     */
+    public static ShellSupervisor supervise(Shell.ShellType shellType) {
+        return supervise(shellType, false, 5000, 10000);
+    }
+
+    /**
+     * Supervises the shared shell of the given type. The shell does not have to be open yet, it is
+     * supervised once it is opened. Supervising a type that is supervised already returns the
+     * supervisor that is running.
+     *
+     * @param shellType    the shell to supervise.
+     * @param standby      true to keep a second shell open that takes over at once when the shell is lost.
+     * @param interval     the time between heartbeats in milliseconds.
+     * @param stallTimeout the time in milliseconds a shell may take to answer a heartbeat.
+     * @return the supervisor, stop it to stop supervising.
+     */
+    public static synchronized ShellSupervisor supervise(Shell.ShellType shellType, boolean standby, int interval, int stallTimeout) {
+        ShellSupervisor supervisor = supervisors.get(shellType);
+
+        if (supervisor == null) {
+            RootShell.log("Supervising " + shellType + " shell");
+            supervisor = new ShellSupervisor(shellType, standby, interval, stallTimeout);
+            supervisors.put(shellType, supervisor);
+        }
+
+        return supervisor;
+    }
+
+    /**
+     * Stops supervising. A standby shell is closed, commands waiting for a replacement are terminated
+     * and a shell that is lost from now on is opened again the next time it is used.
+     */
+    public void stop() {
+        synchronized (ShellSupervisor.class) {
+            if (supervisors.get(shellType) == this) {
+                supervisors.remove(shellType);
+            }
+        }
+
+        Shell standby;
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            stopped = true;
+            heartbeats.cancel(false);
+
+            if (current != null) {
+                current.supervisor = null;
+            }
+
+            if (replacing != null) {
+                replacing.supervisor = null;
+            }
+
+            standby = this.standby;
+            this.standby = null;
+
+            for (Pending p : pending) {
+                p.command.terminated("Unexpected Termination.");
+            }
+            pending.clear();
+        }
+
+        if (standby != null) {
+            try {
+                standby.close();
+            } catch (IOException e) {
+                RootShell.log(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return how many times a lost shell was replaced.
+     */
+    public synchronized int getRespawnCount() {
+        return respawns;
+    }
+
+    synchronized boolean hasStandby() {
+        return standby != null && standby.isAlive();
+    }
+
+    /**
+     * Runs the command on the replacement of the lost shell it was added to, as soon as there is one.
+     */
+    synchronized void forward(Command command) throws IOException {
+        if (stopped) {
+            throw new IllegalStateException(
+                    "Unable to add commands to a closed shell");
+        }
+
+        if (current != null && current.isAlive()) {
+            current.add(command);
+            return;
+        }
+
+        pending.add(new Pending(command));
+        scheduleRespawn();
+    }
+
+    /**
+     * Called by the output thread of a supervised shell whose process exited.
+     *
+     * @param replay the commands to run again on the replacement, in the order they were added.
+     */
+    synchronized void shellLost(Shell shell, List<Command> replay) {
+        for (int i = replay.size() - 1; i >= 0; i--) {
+            //before anything that was added to the lost shell after it was gone
+            pending.add(0, new Pending(replay.get(i)));
+        }
+
+        if (stopped) {
+            for (Pending p : pending) {
+                p.command.terminated("Unexpected Termination.");
+            }
+            pending.clear();
+            return;
+        }
+
+        if (shell == standby) {
+            RootShell.log("Standby " + shellType + " shell lost");
+            standby = null;
+            return;
+        }
+
+        if (shell == current) {
+            RootShell.log(shellType + " shell lost, replacing it");
+            current = null;
+            replacing = shell;
+
+            if (!answered) {
+                failures++;  //lost again right away, do not hurry the next one
+            }
+        } else if (shell != replacing && Shell.getShared(shellType) == shell) {
+            replacing = shell;  //lost before it was supervised
+        }
+
+        scheduleRespawn();
+    }
+
+    private void scheduleRespawn() {
+        if (respawnScheduled || stopped) {
+            return;
+        }
+
+        respawnScheduled = true;
+
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                respawn();
+            }
+        }, backoff(failures), TimeUnit.MILLISECONDS);
+    }
+
+    private static long backoff(int failures) {
+        return failures == 0 ? 0 : Math.min(MIN_BACKOFF << Math.min(failures - 1, 16), MAX_BACKOFF);
+    }
+
+    /**
+     * Opens the replacement of the lost shell, or takes the standby, and hands it the pending commands.
+     */
+    private void respawn() {
+        Shell lost;
+        Shell replacement;
+
+        synchronized (this) {
+            respawnScheduled = false;
+            lost = replacing;
+
+            if (stopped || lost == null) {
+                return;
+            }
+
+            replacement = standby;
+            standby = null;
+        }
+
+        if (replacement == null || !replacement.isAlive()) {
+            try {
+                replacement = lost.reopen();
+            } catch (IOException | TimeoutException | RootDeniedException e) {
+                synchronized (this) {
+                    failures++;
+                    RootShell.log("Could not replace lost " + shellType + " shell, next attempt in "
+                            + backoff(failures) + " ms: " + e);
+                    expirePending();
+                    scheduleRespawn();
+                }
+                return;
+            }
+        }
+
+        synchronized (this) {
+            replacing = null;
+
+            if (stopped || !Shell.replaceShared(lost, replacement)) {
+                //closed meanwhile, nobody is waiting for a replacement
+                closeQuietly(replacement);
+
+                if (stopped) {
+                    return;
+                }
+
+                for (Pending p : pending) {
+                    p.command.terminated("Unexpected Termination.");
+                }
+                pending.clear();
+                return;
+            }
+
+            attach(replacement);
+            respawns++;
+
+            RootShell.log("Replaced lost " + shellType + " shell, running " + pending.size() + " commands again");
+
+            //still holding the lock, so nothing forwarded meanwhile overtakes them
+            List<Pending> replay = new ArrayList<Pending>(pending);
+            pending.clear();
+
+            for (Pending p : replay) {
+                try {
+                    replacement.add(p.command);
+                } catch (IOException | IllegalStateException e) {
+                    p.command.terminated("Unexpected Termination.");
+                }
+            }
+        }
+
+        openStandby();
+    }
+
+    /**
+     * Looks at the shared shell: supervises a new one, replaces a lost one and sends the heartbeat.
+     */
+    private void tick() {
+        Shell shell = Shell.getShared(shellType);
+
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            expirePending();
+        }
+
+        if (shell == null) {
+            return;  //not opened yet, or closed
+        }
+
+        if (shell.isLost() || shell.isClosed) {
+            shellLost(shell, Collections.<Command>emptyList());
+            return;
+        }
+
+        synchronized (this) {
+            if (shell != current) {
+                attach(shell);
+                answered = true;  //it was opened without our help
+            }
+        }
+
+        check(shell);
+        openStandby();
+    }
+
+    private void check(Shell shell) {
+        long now = System.currentTimeMillis();
+        int progress = shell.getProgress();
+
+        if (progress != lastProgress) {
+            lastProgress = progress;
+            lastProgressAt = now;
+        }
+
+        if (heartbeat != null && heartbeat.isFinished()) {
+            if (heartbeat.getExitCode() == 0) {
+                synchronized (this) {
+                    answered = true;
+                    failures = 0;
+                }
+
+                if (heartbeat.pid > 0) {
+                    shellPid = heartbeat.pid;
+                }
+            }
+
+            heartbeat = null;
+        }
+
+        Command command = shell.getCurrentCommand();
+
+        if (command == null) {
+            heartbeat = new Heartbeat();
+            heartbeatSent = now;
+
+            try {
+                shell.add(heartbeat);
+            } catch (IOException | IllegalStateException e) {
+                heartbeat = null;
+            }
+        } else if (command == heartbeat) {
+            if (now - heartbeatSent > stallTimeout) {
+                RootShell.log(shellType + " shell did not answer the heartbeat in " + stallTimeout + " ms");
+                abandon(shell);
+            }
+        } else if (command.isFinished() && now - lastProgressAt > stallTimeout) {
+            /**
+             * Long running commands are not a stall, their timeouts are there for that. But once the
+             * command was terminated the shell has to go on with the next one.
+             */
+            RootShell.log(shellType + " shell did not go on after command " + command.id + " was terminated");
+            abandon(shell);
+        }
+    }
+
+    private void abandon(Shell shell) {
+        heartbeat = null;
+        lastProgressAt = System.currentTimeMillis();  //give it the stall timeout to go away
+        shell.abandon(shellPid);
+    }
+
+    private void attach(Shell shell) {
+        shell.supervisor = this;
+        current = shell;
+        answered = false;
+        heartbeat = null;
+        shellPid = 0;
+        lastProgressAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Opens the standby shell if there should be one, on the timer thread.
+     */
+    private void openStandby() {
+        Shell template;
+
+        synchronized (this) {
+            if (!standbyEnabled || stopped || standby != null || current == null
+                    || System.currentTimeMillis() < standbyRetryAt) {
+                return;
+            }
+
+            template = current;
+        }
+
+        Shell shell;
+
+        try {
+            shell = template.reopen();
+        } catch (IOException | TimeoutException | RootDeniedException e) {
+            standbyFailures++;
+            standbyRetryAt = System.currentTimeMillis() + backoff(standbyFailures);
+            RootShell.log("Could not open standby " + shellType + " shell: " + e);
+            return;
+        }
+
+        standbyFailures = 0;
+
+        synchronized (this) {
+            if (!stopped) {
+                shell.supervisor = this;
+                standby = shell;
+                return;
+            }
+        }
+
+        closeQuietly(shell);
+    }
+
+    /**
+     * Terminates the commands that waited for a replacement longer than their timeout.
+     */
+    private void expirePending() {
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < pending.size(); i++) {
+            Pending p = pending.get(i);
+
+            if (now >= p.deadline) {
+                pending.remove(i--);
+                p.command.terminated("Unexpected Termination.");
+            }
+        }
+    }
+
+    private static void closeQuietly(Shell shell) {
+        try {
+            shell.close();
+        } catch (IOException e) {
+            RootShell.log(e.getMessage());
+        }
+    }
+
+    private static class Pending {
+
+        final Command command;
+
+        final long deadline;
+
+        Pending(Command command) {
+            this.command = command;
+            this.deadline = System.currentTimeMillis()
+                    + (command.timeout > 0 ? command.timeout : RootShell.defaultCommandTimeout);
+        }
+    }
+
+    /**
+     * A no-op that runs in the shell itself and tells its pid, which is needed to kill the shell.
+     */
+    private static class Heartbeat extends Command {
+
+        volatile int pid = 0;
+
+        Heartbeat() {
+            super(HEARTBEAT_ID, false, 0, "echo $$");
+            setRunInShell(true);
+        }
+
+        @Override
+        public void commandOutput(int id, String line) {
+            try {
+                pid = Integer.parseInt(line.trim());
+            } catch (NumberFormatException e) {
+                //not the pid
+            }
+
+            super.commandOutput(id, line);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.BinaryCommand;
+import com.stericson.RootShell.execution.Command;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryCommandTest extends CustomShellTestBase {
+
+    @Test
+    public void keepsBytesThatAreNotText() throws Exception {
+        byte[] expected = new byte[256 * 1024];
+        new Random(42).nextBytes(expected);
+
+        File file = File.createTempFile("binary", ".img");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(expected);
+        } finally {
+            out.close();
+        }
+
+        BinaryCommand cat = new BinaryCommand(0, false, 10000, "cat " + file.getAbsolutePath());
+        assertTrue(shell.add(cat).waitForFinish(10000));
+
+        assertEquals(0, cat.getExitCode());
+        assertArrayEquals(expected, cat.getOutput());
+    }
+
+    @Test
+    public void keepsTrailingBytesWithoutLineBreak() throws Exception {
+        BinaryCommand printf = new BinaryCommand(0, false, 10000, "printf 'a\\r\\n\\000b'");
+        assertTrue(shell.add(printf).waitForFinish(10000));
+
+        assertArrayEquals(new byte[]{'a', '\r', '\n', 0, 'b'}, printf.getOutput());
+    }
+
+    @Test
+    public void textCommandsAroundBinaryCommandStillGetLines() throws Exception {
+        final List<String> lines = new ArrayList<String>();
+        Command before = new Command(0, false, 10000, "echo one", "printf two") {
+            @Override
+            public void commandOutput(int id, String line) {
+                lines.add(line);
+                super.commandOutput(id, line);
+            }
+        };
+        BinaryCommand binary = new BinaryCommand(1, false, 10000, "echo three");
+
+        shell.add(before);
+        assertTrue(shell.add(binary).waitForFinish(10000));
+
+        assertEquals(2, lines.size());
+        assertEquals("one", lines.get(0));
+        assertEquals("two", lines.get(1));
+        assertTrue(before.isFinished());
+        assertArrayEquals("three\n".getBytes("UTF-8"), binary.getOutput());
+    }
+}
@@ -0,0 +1,66 @@
+package com.stericson.RootShell;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryLocatorTest {
+
+    @Test
+    public void findsBinariesInListedDirectories() throws Exception {
+        File first = newDir();
+        File second = newDir();
+        touch(new File(second, "bootctl"));
+        touch(new File(first, "su"));
+        touch(new File(second, "su"));
+
+        BinaryLocator locator = new BinaryLocator();
+        List<String> dirs = Arrays.asList(first.getPath(), second.getPath() + "/");
+
+        assertEquals(Collections.singletonList(second.getPath() + "/"), locator.find("bootctl", dirs, true));
+        assertEquals(Collections.singletonList(first.getPath() + "/"), locator.find("su", dirs, true));
+        assertEquals(Arrays.asList(first.getPath() + "/", second.getPath() + "/"), locator.find("su", dirs, false));
+        assertTrue(locator.find("busybox", dirs, true).isEmpty());
+    }
+
+    @Test
+    public void seesNewBinaryOnceTheDirectoryChanges() throws Exception {
+        File dir = newDir();
+        List<String> dirs = Collections.singletonList(dir.getPath());
+
+        BinaryLocator locator = new BinaryLocator();
+        assertTrue(locator.find("toybox", dirs, true).isEmpty());
+
+        touch(new File(dir, "toybox"));
+        dir.setLastModified(dir.lastModified() - 10000);
+
+        assertEquals(Collections.singletonList(dir.getPath() + "/"), locator.find("toybox", dirs, true));
+    }
+
+    @Test
+    public void missingDirectoryHasNoBinaries() {
+        BinaryLocator locator = new BinaryLocator();
+
+        assertTrue(locator.find("su", Collections.singletonList("/does/not/exist"), false).isEmpty());
+    }
+
+    private static File newDir() throws IOException {
+        File dir = File.createTempFile("bin", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void touch(File file) throws IOException {
+        assertTrue(file.createNewFile());
+        file.deleteOnExit();
+    }
+}
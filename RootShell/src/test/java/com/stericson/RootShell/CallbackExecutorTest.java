@@ -0,0 +1,166 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackExecutorTest extends CustomShellTestBase {
+
+    private static final int LINES = 5000;
+
+    private ExecutorService pool;
+
+    @Before
+    public void openPool() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void closePool() {
+        pool.shutdownNow();
+    }
+
+    // counts the tasks, and is slow to start like a busy main thread
+    private static class CountingExecutor implements Executor {
+
+        final AtomicInteger tasks = new AtomicInteger();
+        final Executor target;
+
+        CountingExecutor(Executor target) {
+            this.target = target;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            tasks.incrementAndGet();
+            target.execute(command);
+        }
+    }
+
+    private static class Collector extends Command {
+
+        final List<String> lines = new ArrayList<String>();
+        final List<Integer> batches = new ArrayList<Integer>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger concurrent = new AtomicInteger();
+        volatile boolean overlapped;
+        volatile int exitCode = -2;
+        volatile String terminated;
+
+        Collector(String... command) {
+            super(0, true, 10000, command);
+        }
+
+        @Override
+        public void commandOutput(int id, List<String> batch) {
+            if (concurrent.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            batches.add(batch.size());
+            super.commandOutput(id, batch);
+            concurrent.decrementAndGet();
+        }
+
+        @Override
+        public void commandOutput(int id, String line) {
+            lines.add(line);
+            super.commandOutput(id, line);
+        }
+
+        @Override
+        public void commandCompleted(int id, int exitcode) {
+            exitCode = exitcode;
+            done.countDown();
+        }
+
+        @Override
+        public void commandTerminated(int id, String reason) {
+            terminated = reason;
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void coalescesLinesIntoFewBatches() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        CountingExecutor executor = new CountingExecutor(new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            busy.await(200, TimeUnit.MILLISECONDS);  // the first delivery waits, lines pile up
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        command.run();
+                    }
+                });
+            }
+        });
+
+        Collector collector = new Collector("i=1; while [ $i -le " + LINES + " ]; do echo $i; i=$((i+1)); done");
+        collector.setCallbackExecutor(executor);
+        shell.add(collector);
+
+        assertTrue(collector.done.await(20, TimeUnit.SECONDS));
+        assertEquals(0, collector.exitCode);
+
+        assertEquals(LINES, collector.lines.size());
+        for (int i = 0; i < LINES; i++) {
+            assertEquals(Integer.toString(i + 1), collector.lines.get(i));
+        }
+
+        assertTrue("tasks: " + executor.tasks.get(), executor.tasks.get() < LINES / 10);
+        assertTrue(!collector.overlapped);
+    }
+
+    @Test
+    public void splitsLargeBatches() throws Exception {
+        CountingExecutor executor = new CountingExecutor(pool);
+
+        Collector collector = new Collector("i=1; while [ $i -le 1000 ]; do echo $i; i=$((i+1)); done");
+        collector.setCallbackExecutor(executor, 64);
+        shell.add(collector);
+
+        assertTrue(collector.done.await(20, TimeUnit.SECONDS));
+        assertEquals(1000, collector.lines.size());
+        for (int size : collector.batches) {
+            assertTrue(size <= 64);
+        }
+        assertTrue(!collector.overlapped);
+    }
+
+    @Test
+    public void terminationFollowsTheOutput() throws Exception {
+        Collector collector = new Collector("echo before", "sleep 30");
+        collector.setCallbackExecutor(pool);
+        shell.add(collector);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (collector.lines.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        collector.terminate();
+
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals("Terminated at users request!", collector.terminated);
+        assertEquals("before", collector.lines.get(0));
+    }
+}
@@ -0,0 +1,198 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootShell.execution.ShellPool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CommandTimeoutTest extends CustomShellTestBase {
+
+    private static class Recorder extends Command {
+
+        final List<String> lines = new ArrayList<String>();
+        String terminated;
+        boolean completed;
+
+        Recorder(int id, int timeout, String... command) {
+            super(id, false, timeout, command);
+        }
+
+        @Override
+        public void commandOutput(int id, String line) {
+            lines.add(line);
+            super.commandOutput(id, line);
+        }
+
+        @Override
+        public void commandTerminated(int id, String reason) {
+            terminated = reason;
+        }
+
+        @Override
+        public void commandCompleted(int id, int exitcode) {
+            completed = true;
+        }
+    }
+
+    private static boolean isRunning(String pattern) throws Exception {
+        Process p = Runtime.getRuntime().exec(new String[]{"pgrep", "-f", pattern});
+        return p.waitFor() == 0;
+    }
+
+    @Test
+    public void timeoutKillsOnlyTheCommand() throws Exception {
+        Recorder slow = new Recorder(1, 500, "echo started", "sleep 31.25");
+        slow.setRunInShell(false);
+        Recorder next = new Recorder(2, 10000, "echo next");
+
+        shell.add(slow);
+        shell.add(next);
+
+        assertTrue(slow.waitForFinish(10000));
+        assertEquals("Timeout Exception", slow.terminated);
+        assertFalse(slow.completed);
+
+        assertTrue(next.waitForFinish(10000));
+        assertTrue(next.completed);
+        assertEquals("next", next.lines.get(0));
+
+        assertSame(shell, Shell.startCustomShell("/bin/sh"));  // the shell survived
+        assertTrue(shell.isAlive());
+
+        Thread.sleep(500);
+        assertFalse(isRunning("sleep 31.25"));
+    }
+
+    @Test
+    public void timeoutOfACommandInTheShellLeavesTheShellsAndTheQueue() throws Exception {
+        ShellPool pool = ShellPool.startCustomPool("/bin/sh", 1, 5000);
+
+        try {
+            Shell other = pool.getShell();
+            Recorder elsewhere = new Recorder(13, 10000, "sleep 1", "echo elsewhere");
+            other.add(elsewhere);
+
+            shell.add(new Command(14, false, "cd /tmp"));
+            Recorder slow = new Recorder(15, 500, "echo started", "sleep 31.75");
+            Recorder next = new Recorder(16, 10000, "pwd");
+            shell.add(slow);
+            shell.add(next);
+
+            assertTrue(slow.waitForFinish(10000));
+            assertEquals("Timeout Exception", slow.terminated);
+
+            assertTrue(next.waitForFinish(10000));
+            assertTrue(next.completed);
+            assertEquals("/tmp", next.lines.get(0));  // the same shell went on
+            assertSame(shell, Shell.startCustomShell("/bin/sh"));
+            assertTrue(shell.isAlive());
+
+            assertTrue(elsewhere.waitForFinish(10000));
+            assertTrue(elsewhere.completed);
+            assertTrue(other.isAlive());
+
+            assertFalse(isRunning("sleep 31.75"));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void terminateKillsTheJobAndItsChildren() throws Exception {
+        Recorder slow = new Recorder(3, 0, "sh -c 'sleep 32.5; echo late' & wait");
+        slow.setRunInShell(false);
+        shell.add(slow);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!isRunning("sleep 32.5") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        slow.terminate();
+        assertEquals("Terminated at users request!", slow.terminated);
+
+        Recorder next = new Recorder(4, 10000, "echo still here");
+        shell.add(next);
+        assertTrue(next.waitForFinish(10000));
+        assertEquals("still here", next.lines.get(0));
+
+        assertFalse(isRunning("sleep 32.5"));
+        assertTrue(slow.lines.isEmpty());
+    }
+
+    @Test
+    public void terminateKillsWhatACommandInTheShellStarted() throws Exception {
+        Recorder slow = new Recorder(17, 0, "sh -c 'sleep 32.75; echo late' & wait");
+        shell.add(slow);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!isRunning("sleep 32.75") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        slow.terminate();
+
+        Recorder next = new Recorder(18, 10000, "echo still here");
+        shell.add(next);
+        assertTrue(next.waitForFinish(10000));
+        assertEquals("still here", next.lines.get(0));
+
+        assertFalse(isRunning("sleep 32.75"));
+        assertTrue(slow.lines.isEmpty());
+        assertEquals(-1, slow.getExitCode());
+    }
+
+    @Test
+    public void queuedCommandTerminatedBeforeItRuns() throws Exception {
+        Recorder blocker = new Recorder(5, 10000, "sleep 0.3");
+        Recorder skipped = new Recorder(6, 10000, "echo should not run");
+        Recorder after = new Recorder(7, 10000, "echo after");
+
+        shell.add(blocker);
+        shell.add(skipped);
+        skipped.terminate();
+        shell.add(after);
+
+        assertTrue(after.waitForFinish(10000));
+        assertTrue(skipped.lines.isEmpty());
+        assertEquals("after", after.lines.get(0));
+    }
+
+    @Test
+    public void commandsKeepTheShellStateByDefault() throws Exception {
+        shell.add(new Command(8, false, "cd /tmp", "X=kept"));
+        Recorder pwd = new Recorder(9, 10000, "pwd", "echo $X");
+        shell.add(pwd);
+
+        assertTrue(pwd.waitForFinish(10000));
+        assertEquals("/tmp", pwd.lines.get(0));
+        assertEquals("kept", pwd.lines.get(1));
+
+        shell.add(new Command(11, false, "cd /").setRunInShell(false));
+        Recorder after = new Recorder(12, 10000, "pwd");
+        shell.add(after);
+
+        assertTrue(after.waitForFinish(10000));
+        assertEquals("/tmp", after.lines.get(0));  // a job cannot change the shell
+    }
+
+    @Test
+    public void exitCodeOfTheJob() throws Exception {
+        Recorder failing = new Recorder(10, 10000, "echo out", "exit 3");
+        failing.setRunInShell(false);
+        shell.add(failing);
+
+        assertTrue(failing.waitForFinish(10000));
+        assertEquals(3, failing.getExitCode());
+        assertEquals(1, failing.lines.size());
+    }
+}
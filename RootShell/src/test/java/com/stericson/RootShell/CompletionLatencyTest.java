@@ -0,0 +1,86 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompletionLatencyTest extends CustomShellTestBase {
+
+    private static final int COMMANDS = 20;
+
+    private ExecutorService handler;
+
+    @Before
+    public void openHandler() {
+        handler = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void closeHandler() {
+        handler.shutdownNow();
+    }
+
+    /**
+     * Processes its lines later on another thread, like a command whose callbacks go through a handler,
+     * so the shell has to wait for them before it can finish the command.
+     */
+    private class LateCommand extends Command {
+
+        LateCommand(int id) {
+            super(id, false, 10000, "echo one", "echo two", "echo three");
+        }
+
+        @Override
+        public void commandOutput(final int id, final String line) {
+            handler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    LateCommand.super.commandOutput(id, line);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void finishesAsSoonAsTheLastLineIsProcessed() throws Exception {
+        long start = System.nanoTime();
+
+        for (int i = 0; i < COMMANDS; i++) {
+            Command command = shell.add(new LateCommand(i));
+            RootShell.commandWait(shell, command);
+
+            assertEquals(0, command.getExitCode());
+            assertEquals(3, command.totalOutputProcessed);
+        }
+
+        long perCommand = (System.nanoTime() - start) / 1000000 / COMMANDS;
+
+        // polling the callbacks every 2 seconds made every command take at least that long
+        assertTrue("took " + perCommand + " ms per command", perCommand < 500);
+    }
+
+    @Test
+    public void waitReturnsWhenTheCommandFinishes() throws Exception {
+        Command command = shell.add(new Command(100, false, 10000, "sleep 0.2"));
+
+        long start = System.nanoTime();
+        assertTrue(command.waitForFinish(10000));
+        long waited = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("waited " + waited + " ms", waited < 1500);
+        assertTrue(command.isFinished());
+    }
+}
@@ -0,0 +1,30 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Shell;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.File;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the tests against the host's /bin/sh as the custom shell, they are skipped where there is none.
+ * Every shell is closed after each test.
+ */
+public abstract class CustomShellTestBase {
+
+    protected Shell shell;
+
+    @Before
+    public void openShell() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+        shell = Shell.startCustomShell("/bin/sh");
+    }
+
+    @After
+    public void closeShells() throws Exception {
+        Shell.closeAll();
+    }
+}
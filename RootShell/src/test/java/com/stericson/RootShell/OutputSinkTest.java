@@ -0,0 +1,138 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.ChannelSink;
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.LineSink;
+import com.stericson.RootShell.execution.OutputSink;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutputSinkTest extends CustomShellTestBase {
+
+    @Test
+    public void streamsToFileChannel() throws Exception {
+        File file = File.createTempFile("sink", ".txt");
+        file.deleteOnExit();
+
+        FileOutputStream out = new FileOutputStream(file);
+        FileChannel channel = out.getChannel();
+        ChannelSink sink = new ChannelSink(channel);
+
+        Command command = new Command(0, false, 20000, "i=0; while [ $i -lt 50000 ]; do echo line $i; i=$((i+1)); done");
+        command.setOutputSink(sink);
+        assertTrue(shell.add(command).waitForFinish(20000));
+        out.close();
+
+        assertEquals(0, command.getExitCode());
+        assertEquals(file.length(), sink.getBytesWritten());
+
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            assertEquals("line 0", in.readLine());
+            in.seek(file.length() - "line 49999\n".length());
+            assertEquals("line 49999", in.readLine());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void boundedConsumerHoldsTheShellBack() throws Exception {
+        final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(16);
+
+        Command command = new Command(0, false, 20000, "i=0; while [ $i -lt 5000 ]; do echo $i; i=$((i+1)); done", "printf last");
+        command.setOutputSink(new LineSink() {
+            @Override
+            public void onLine(String line) throws IOException {
+                try {
+                    queue.put(line);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        });
+        shell.add(command);
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Integer.toString(i), queue.take());
+            assertTrue(queue.size() <= 16);
+        }
+        assertEquals("last", queue.take());
+
+        assertTrue(command.waitForFinish(20000));
+        assertEquals(0, command.getExitCode());
+    }
+
+    @Test
+    public void sinkOfATerminatedCommandIsNotFinished() throws Exception {
+        final AtomicBoolean finished = new AtomicBoolean();
+        final CountDownLatch written = new CountDownLatch(1);
+
+        Command command = new Command(0, false, 0, "echo first", "sleep 5", "echo second");
+        command.setOutputSink(new OutputSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                written.countDown();
+            }
+
+            @Override
+            public void finish() {
+                finished.set(true);
+            }
+        });
+        shell.add(command);
+
+        assertTrue(written.await(10, TimeUnit.SECONDS));
+        command.terminate();
+
+        //the shell is done with the command once the next one finishes
+        Command next = new Command(0, false, 10000, "true");
+        assertTrue(shell.add(next).waitForFinish(20000));
+
+        assertFalse(finished.get());
+        assertEquals(-1, command.getExitCode());
+    }
+
+    @Test
+    public void failingSinkTerminatesCommand() throws Exception {
+        Command command = new Command(0, false, 10000, "echo boom") {
+            @Override
+            public void commandCompleted(int id, int exitcode) {
+                throw new AssertionError("should have been terminated");
+            }
+        };
+        command.setOutputSink(new OutputSink() {
+            @Override
+            public void write(byte[] buffer, int offset, int length) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void finish() {
+            }
+        });
+        assertTrue(shell.add(command).waitForFinish(20000));
+
+        assertEquals(-1, command.getExitCode());
+
+        //the shell keeps working for the next command
+        Command next = new Command(0, false, 10000, "true");
+        assertTrue(shell.add(next).waitForFinish(20000));
+        assertEquals(0, next.getExitCode());
+    }
+}
@@ -0,0 +1,88 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootShell.execution.ShellPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ShellPoolTest {
+
+    private ShellPool pool;
+
+    @Before
+    public void openPool() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+        pool = ShellPool.startCustomPool("/bin/sh", 3, 5000);
+    }
+
+    @After
+    public void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void spreadsBusyShells() throws Exception {
+        Shell first = pool.add(new Command(0, false, 0, "sleep 1"));
+        Shell second = pool.add(new Command(0, false, 0, "sleep 1"));
+
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void replacesUnhealthyShells() throws Exception {
+        Shell dead = pool.getShell();
+        dead.close();
+
+        boolean[] healthy = pool.checkHealth(5000);
+
+        int unhealthy = 0;
+        for (boolean h : healthy) {
+            if (!h) {
+                unhealthy++;
+            }
+        }
+        assertEquals(1, unhealthy);
+
+        for (int i = 0; i < pool.size(); i++) {
+            Shell shell = pool.getShell();
+            assertTrue(shell.isAlive());
+            shell.add(new Command(0, false, 0, "sleep 1"));
+            assertFalse(shell == dead);
+        }
+    }
+
+    @Test
+    public void reusesIdleShell() throws Exception {
+        Shell shell = pool.getShell();
+        assertSame(shell, pool.getShell());
+    }
+
+    @Test
+    public void busyShellStaysHealthy() throws Exception {
+        Command slow = new Command(0, false, 0, "sleep 1");
+        Shell busy = pool.add(slow);
+
+        boolean[] healthy = pool.checkHealth(200);
+
+        for (boolean h : healthy) {
+            assertTrue(h);
+        }
+        assertTrue(busy.isAlive());
+        assertTrue(slow.waitForFinish(5000));
+        assertEquals(0, slow.getExitCode());
+    }
+}
@@ -0,0 +1,40 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.CommandResult;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ShellSubmitTest extends CustomShellTestBase {
+
+    @Test
+    public void collectsStdoutStderrAndExitCode() throws Exception {
+        CommandResult result = shell.submit("echo one", "echo two", "echo oops >&2", "false")
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("one", "two"), result.getStdout());
+        assertEquals(Arrays.asList("oops"), result.getStderr());
+        assertEquals(1, result.getExitCode());
+        assertFalse(result.isSuccess());
+    }
+
+    @Test
+    public void composesDependentCommands() throws Exception {
+        CompletableFuture<CommandResult> suffix = shell.submit("echo 1")
+                .thenCompose(new Function<CommandResult, CompletableFuture<CommandResult>>() {
+                    @Override
+                    public CompletableFuture<CommandResult> apply(CommandResult slot) {
+                        return shell.submit("echo _slot" + slot.getFirstLine());
+                    }
+                });
+
+        assertEquals("_slot1", suffix.get(10, TimeUnit.SECONDS).getFirstLine());
+    }
+}
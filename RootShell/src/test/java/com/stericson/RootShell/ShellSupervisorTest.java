@@ -0,0 +1,128 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootShell.execution.ShellSupervisor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShellSupervisorTest extends CustomShellTestBase {
+
+    private ShellSupervisor supervisor;
+
+    @Before
+    public void startSupervisor() throws Exception {
+        supervisor = ShellSupervisor.supervise(Shell.ShellType.CUSTOM, false, 100, 1000);
+    }
+
+    @After
+    public void stopSupervisor() {
+        supervisor.stop();
+    }
+
+    private static class Recorder extends Command {
+
+        final List<String> lines = new ArrayList<String>();
+        String terminated;
+        boolean completed;
+
+        Recorder(int id, String... command) {
+            super(id, false, 10000, command);
+        }
+
+        @Override
+        public void commandOutput(int id, String line) {
+            lines.add(line);
+            super.commandOutput(id, line);
+        }
+
+        @Override
+        public void commandTerminated(int id, String reason) {
+            terminated = reason;
+        }
+
+        @Override
+        public void commandCompleted(int id, int exitcode) {
+            completed = true;
+        }
+    }
+
+    private int shellPid() throws Exception {
+        Recorder pid = new Recorder(0, "echo $$");
+        pid.setRunInShell(true);
+        shell.add(pid);
+        assertTrue(pid.waitForFinish(10000));
+        return Integer.parseInt(pid.lines.get(0));
+    }
+
+    private static void signal(String signal, int pid) throws Exception {
+        assertEquals(0, Runtime.getRuntime().exec(new String[]{"kill", signal, Integer.toString(pid)}).waitFor());
+    }
+
+    @Test
+    public void lostShellIsReplacedAndIdempotentCommandsRunAgain() throws Exception {
+        int pid = shellPid();
+
+        Recorder idempotent = new Recorder(1, "sleep 0.5", "echo again");
+        idempotent.setIdempotent(true);
+        Recorder once = new Recorder(2, "echo once");
+
+        shell.add(idempotent);
+        shell.add(once);
+        signal("-9", pid);
+
+        assertTrue(idempotent.waitForFinish(10000));
+        assertTrue(idempotent.completed);
+        assertEquals("again", idempotent.lines.get(idempotent.lines.size() - 1));
+
+        assertTrue(once.waitForFinish(10000));
+        assertEquals("Unexpected Termination.", once.terminated);
+
+        assertTrue(shell.isLost());
+        Shell replacement = Shell.startCustomShell("/bin/sh");
+        assertNotSame(shell, replacement);
+        assertTrue(replacement.isAlive());
+        assertEquals(1, supervisor.getRespawnCount());
+
+        // whoever still holds the lost shell gets the replacement
+        Recorder late = new Recorder(3, "echo late");
+        shell.add(late);
+        assertTrue(late.waitForFinish(10000));
+        assertTrue(late.completed);
+        assertEquals("late", late.lines.get(0));
+    }
+
+    @Test
+    public void stalledShellIsReplaced() throws Exception {
+        int pid = shellPid();
+        Thread.sleep(300);  // a heartbeat or two, so the supervisor knows the pid
+
+        signal("-STOP", pid);
+        Thread.sleep(300);  // the next heartbeat is stuck now
+
+        Recorder idempotent = new Recorder(4, "echo answered");
+        idempotent.setIdempotent(true);
+        shell.add(idempotent);
+
+        assertTrue(idempotent.waitForFinish(10000));
+        assertTrue(idempotent.completed);
+        assertEquals("answered", idempotent.lines.get(0));
+        assertNull(idempotent.terminated);
+
+        assertTrue(shell.isLost());
+        assertFalse(new File("/proc/" + pid).exists());
+        assertEquals(1, supervisor.getRespawnCount());
+    }
+}
@@ -0,0 +1,67 @@
+package com.stericson.RootShell;
+
+import com.stericson.RootShell.execution.Command;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that many small commands go through a shell quickly, using the host's /bin/sh.
+ * A command that waits on a poll instead of being woken up takes seconds and fails the deadline.
+ */
+public class ShellThroughputTest extends CustomShellTestBase {
+
+    private static final int COMMANDS = 2000;
+
+    //the least commands per second, far below what any shell does unless something waits on a timer
+    private static final int MIN_RATE = 100;
+
+    @Test
+    public void commandsPerSecond() throws Exception {
+        //warm up the threads and the shell
+        assertTrue(shell.add(new Command(0, false, "true")).waitForFinish(10000));
+
+        Command last = null;
+
+        for (int i = 0; i < COMMANDS; i++) {
+            last = shell.add(new Command(i, false, "true"));
+        }
+
+        assertTrue("finished " + (COMMANDS - shell.getCommandQueueSize()) + " of " + COMMANDS,
+                last.waitForFinish(COMMANDS * 1000L / MIN_RATE));
+        assertEquals(0, last.getExitCode());
+    }
+
+    @Test
+    public void batchCommandsPerSecond() throws Exception {
+        assertTrue(shell.add(new Command(0, false, "true")).waitForFinish(10000));
+
+        final AtomicInteger lines = new AtomicInteger();
+        List<Command> batch = new ArrayList<Command>();
+
+        for (int i = 0; i < COMMANDS; i++) {
+            batch.add(new Command(i, false, "echo " + i) {
+                @Override
+                public void commandOutput(int id, String line) {
+                    if (line.equals(Integer.toString(id))) {
+                        lines.incrementAndGet();
+                    }
+
+                    super.commandOutput(id, line);
+                }
+            });
+        }
+
+        shell.addBatch(batch);
+
+        assertTrue("finished " + lines.get() + " of " + COMMANDS,
+                batch.get(batch.size() - 1).waitForFinish(COMMANDS * 1000L / MIN_RATE));
+        assertEquals(COMMANDS, lines.get());
+    }
+}
@@ -0,0 +1,80 @@
+package com.stericson.RootShell.execution;
+
+import android.content.ContextWrapper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameEncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final FrameEncoder frames = new FrameEncoder("TOKEN");
+
+    private String frame() {
+        return new String(frames.array(), 0, frames.length(), UTF_8);
+    }
+
+    @Test
+    public void jobFrame() {
+        frames.job(new Command(0, "echo one", "echo ü"), 1234);
+
+        assertEquals("(read -r pid rest < /proc/self/stat; echo TOKEN 1234 job $pid\n"
+                + "echo one\necho ü\n"
+                + "\n) </dev/null &\nwait $!\n"
+                + "echo TOKEN 1234 $?\n", frame());
+    }
+
+    @Test
+    public void inShellAndSkippedFrames() {
+        frames.inShell(new Command(0, "cd /tmp"), 0);
+        assertEquals("echo TOKEN 0 job $$\ncd /tmp\n\necho TOKEN 0 $?\n", frame());
+
+        frames.skipped(7);
+        assertEquals("echo TOKEN 7 -1\n", frame());
+    }
+
+    @Test
+    public void growsForLargeCommands() {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            big.append('x');
+        }
+
+        frames.inShell(new Command(0, big.toString()), 99);
+        assertEquals("echo TOKEN 99 job $$\n" + big + "\n\necho TOKEN 99 $?\n", frame());
+    }
+
+    @Test
+    public void commandIsEncodedOnce() {
+        Command command = new Command(0, "echo one");
+        assertSame(command.getEncodedCommand(), command.getEncodedCommand());
+    }
+
+    @Test
+    public void javaCommandPrefixIsCachedPerContext() {
+        final int[] calls = {0};
+        ContextWrapper context = new ContextWrapper(null) {
+            @Override
+            public File getFilesDir() {
+                calls[0]++;
+                return new File("/data/data/app/files");
+            }
+        };
+
+        String first = new JavaCommand(0, false, context, "Remounter").getCommand();
+        String second = new JavaCommand(1, false, context, "Other", "Third").getCommand();
+
+        assertEquals(1, calls[0]);
+        assertTrue(first.contains("/data/data/app/files/anbuild.dex"));
+        assertTrue(first.endsWith(" Remounter\n"));
+        assertEquals(2, second.split("\n").length);
+        assertTrue(second.endsWith(" Third\n"));
+    }
+}
@@ -11,5 +11,7 @@ public class Constants
     public static final int GSYM = 7;
     public static final int GET_MOUNTS = 8;
     public static final int GET_SYMLINKS = 9;
+    public static final int PS = 10;
+    public static final int STAT = 11;
 
 }
@@ -34,14 +34,18 @@ import com.stericson.RootShell.execution.Shell;
 import com.stericson.RootTools.containers.Mount;
 import com.stericson.RootTools.containers.Permissions;
 import com.stericson.RootTools.containers.Symlink;
+import com.stericson.RootTools.internal.ProcessScanner;
 import com.stericson.RootTools.internal.Remounter;
 import com.stericson.RootTools.internal.RootToolsInternalMethods;
 import com.stericson.RootTools.internal.Runner;
+import com.stericson.RootTools.internal.SymlinkWalker;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
 public final class RootTools {
@@ -320,6 +324,18 @@ public final class RootTools {
         return getInternals().getFilePermissionsSymlinks(file);
     }
 
+    /**
+     * Reads the permissions of many files at once, with a single command instead of one per file.
+     *
+     * @param paths the full paths of the files to look at.
+     * @return a map from each path that was found to an instance of the class permissions,
+     * in the order of paths. Files that could not be found are left out.
+     * @throws Exception if the files could not be read.
+     */
+    public static Map<String, Permissions> statAll(Collection<String> paths) throws Exception {
+        return getInternals().statAll(paths);
+    }
+
     /**
      * This method will return the inode number of a file. This method is dependent on having a version of
      * ls that supports the -i parameter.
@@ -475,6 +491,19 @@ public final class RootTools {
         return getInternals().getSymlinks(path);
     }
 
+    /**
+     * This will hand you every Symlink in the given path as soon as it is found, instead of
+     * collecting them in a list first. Directories are searched in parallel, so the Symlinks do
+     * not arrive in any particular order.
+     *
+     * @param path     path to search for Symlinks.
+     * @param callback receives the Symlinks, one call at a time.
+     * @throws Exception if we cannot search the path.
+     */
+    public static void getSymlinks(String path, SymlinkWalker.Callback callback) throws Exception {
+        getInternals().getSymlinks(path, callback);
+    }
+
     /**
      * This will return to you a string to be used in your shell commands which will represent the
      * valid working toolbox with correct permissions. For instance, if Busybox is available it will
@@ -615,10 +644,19 @@ public final class RootTools {
      * @throws TimeoutException (Could not determine if the process is running)
      */
     public static boolean isProcessRunning(final String processName) {
-        //TODO convert to new shell
         return getInternals().isProcessRunning(processName);
     }
 
+    /**
+     * This will return the processes that are running right now, read from /proc. The snapshot
+     * can be searched by name as often as needed without looking at /proc again.
+     *
+     * @return <code>ProcessScanner.Snapshot</code> the running processes indexed by name.
+     */
+    public static ProcessScanner.Snapshot getProcesses() {
+        return ProcessScanner.getInstance().scan();
+    }
+
     /**
      * @return <code>true</code> if su was found.
      */
@@ -633,7 +671,6 @@ public final class RootTools {
      * @return <code>true</code> if process was found and killed successfully
      */
     public static boolean killProcess(final String processName) {
-        //TODO convert to new shell
         return getInternals().killProcess(processName);
     }
 
@@ -0,0 +1,195 @@
+/*
+ * This file is part of the RootTools Project: http://code.google.com/p/RootTools/
+ *
+ * Copyright (c) 2012 Stephen Erickson, Chris Ravenscroft, Dominik Schuermann, Adam Shanks
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.LineSink;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.Constants;
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.containers.Permissions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the permissions and symlink targets of many files with a single root shell command.
+ * <p/>
+ * The files are passed to one <code>stat -c '%A %N'</code>, or to <code>ls -ldn</code> where
+ * there is no stat, and the output is parsed line by line as it is streamed back, so auditing a
+ * few hundred binaries costs one round trip instead of one per file.
+ */
+final class BatchStat {
+
+    //longest line of arguments handed to a single stat or ls
+    private static final int MAX_LINE = 8192;
+
+    private static final String ARROW = " -> ";
+
+    private final RootToolsInternalMethods rim;
+
+    BatchStat(RootToolsInternalMethods rim) {
+        this.rim = rim;
+    }
+
+    /**
+     * @param paths the files to look at.
+     * @return the permissions of every file that was found, keyed by the path it was asked for,
+     * in the order of paths. Files that do not exist are left out.
+     */
+    Map<String, Permissions> statAll(Collection<String> paths) throws Exception {
+        final Set<String> wanted = new HashSet<String>(paths);
+        final Map<String, Permissions> found = new LinkedHashMap<String, Permissions>();
+
+        if (wanted.isEmpty()) {
+            return found;
+        }
+
+        Command command = new Command(Constants.STAT, false, buildCommands(paths));
+        command.setOutputSink(new LineSink() {
+            @Override
+            public void onLine(String line) {
+                parseLine(line, wanted, found);
+            }
+        });
+
+        command.setRunInShell(false);
+
+        Shell shell = RootTools.getShell(true);
+        shell.add(command);
+
+        try {
+            command.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+
+        //ls sorts its output, put it back into the order that was asked for
+        Map<String, Permissions> ordered = new LinkedHashMap<String, Permissions>();
+
+        for (String path : paths) {
+            Permissions permissions = found.get(path);
+
+            if (permissions != null) {
+                ordered.put(path, permissions);
+            }
+        }
+
+        return ordered;
+    }
+
+    /**
+     * Splits the paths into lines short enough for any shell, each of which runs stat if it
+     * works and falls back on ls otherwise.
+     */
+    static String[] buildCommands(Collection<String> paths) {
+        List<String> commands = new ArrayList<String>();
+        StringBuilder args = new StringBuilder();
+
+        for (String path : paths) {
+            if (args.length() > 0 && args.length() + path.length() > MAX_LINE) {
+                commands.add(buildCommand(args));
+                args.setLength(0);
+            }
+
+            args.append(" '").append(path.replace("'", "'\\''")).append('\'');
+        }
+
+        if (args.length() > 0) {
+            commands.add(buildCommand(args));
+        }
+
+        return commands.toArray(new String[commands.size()]);
+    }
+
+    private static String buildCommand(CharSequence args) {
+        return "if stat -c %A / >/dev/null 2>&1; then stat -c '%A %N'" + args
+                + " 2>/dev/null; else ls -ldn" + args + " 2>/dev/null; fi";
+    }
+
+    /**
+     * Parses a line of either <code>stat -c '%A %N'</code>, "&lt;mode&gt; &lt;name&gt;[ -&gt;
+     * &lt;target&gt;]" where the names may be quoted, or <code>ls -ldn</code>, which has more
+     * columns between the mode and the name. The name is found by trying the text after every
+     * space against the paths that were asked for.
+     */
+    void parseLine(String line, Set<String> wanted, Map<String, Permissions> found) {
+        int space = line.indexOf(' ');
+
+        if (space == -1) {
+            return;
+        }
+
+        String mode = line.substring(0, space);
+
+        //ls marks files with an SELinux context or ACL
+        if (mode.length() == 11 && (mode.charAt(10) == '.' || mode.charAt(10) == '+')) {
+            mode = mode.substring(0, 10);
+        }
+
+        if (mode.length() != 10) {
+            return;
+        }
+
+        Permissions permissions = null;
+
+        while (space != -1) {
+            int arrow = line.indexOf(ARROW, space + 1);
+            String name = unquote(line.substring(space + 1, arrow == -1 ? line.length() : arrow));
+
+            if (wanted.contains(name)) {
+                permissions = rim.getPermissions(mode);
+
+                if (permissions == null) {
+                    return;
+                }
+
+                permissions.setSymlink(arrow == -1 ? "" : unquote(line.substring(arrow + ARROW.length())));
+                found.put(name, permissions);
+                return;
+            }
+
+            space = line.indexOf(' ', space + 1);
+        }
+    }
+
+    private static String unquote(String name) {
+        if (name.length() >= 2) {
+            char first = name.charAt(0);
+            char last = name.charAt(name.length() - 1);
+
+            if ((first == '\'' || first == '"' || first == '`' || first == '\u2018')
+                    && (last == '\'' || last == '"' || last == '\u2019')) {
+                return name.substring(1, name.length() - 1);
+            }
+        }
+
+        return name;
+    }
+}
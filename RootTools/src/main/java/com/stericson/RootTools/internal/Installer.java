@@ -22,18 +22,16 @@
 
 package com.stericson.RootTools.internal;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
 
 import android.util.Log;
 
@@ -54,6 +52,14 @@ class Installer
 
     static final String BOGUS_FILE_NAME = "bogus";
 
+    static final String DIGEST_INDEX = ".installed_binaries";
+
+    static final String DIGEST = "SHA-256";
+
+    static final String TMP_SUFFIX = ".tmp";
+
+    static final int BUFFER_SIZE = 16384;
+
     Context context;
     String filesPath;
 
@@ -70,6 +76,9 @@ class Installer
      * /data/data/app.package/files/
      * This is typically useful if you provide your own C- or C++-based binary.
      * This binary can then be executed using sendShell() and its full path.
+     * <p/>
+     * The digest of every installed binary is kept in a small index next to it, so as long as
+     * neither the app nor the binary changed a later call only has to stat the file.
      *
      * @param sourceId resource id; typically <code>R.raw.id</code>
      * @param destName destination file name; appended to /data/data/app.package/files/
@@ -80,51 +89,40 @@ class Installer
     protected boolean installBinary(int sourceId, String destName, String mode)
     {
         File mf = new File(filesPath + File.separator + destName);
-        if (!mf.exists() ||
-                !getFileSignature(mf).equals(
-                        getStreamSignature(
-                                context.getResources().openRawResource(sourceId))
-                ))
+        String stamp = getResourceStamp(sourceId);
+
+        synchronized (Installer.class)
         {
+            Properties index = readIndex();
+            String record = index.getProperty(destName);
+
+            if (isCurrent(index, destName, stamp, mf))
+            {
+                // a touched file that was hashed again gets its new size and time remembered,
+                // otherwise it would be hashed again on every launch
+                if (!index.getProperty(destName).equals(record))
+                {
+                    writeIndex(index);
+                }
+                return true;
+            }
+
             Log.e(LOG_TAG, "Installing a new version of binary: " + destName);
-            // First, does our files/ directory even exist?
-            // We cannot wait for android to lazily create it as we will soon
-            // need it.
-            try
+
+            if (!createFilesDirectory())
             {
-                FileInputStream fis = context.openFileInput(BOGUS_FILE_NAME);
-                fis.close();
+                return false;
             }
-            catch (FileNotFoundException e)
+
+            // Only now can we start creating our actual file, next to the old one so it can be
+            // swapped in with a rename once it is complete
+            File tmp = new File(filesPath + File.separator + destName + TMP_SUFFIX);
+            InputStream iss = context.getResources().openRawResource(sourceId);
+            String digest;
+
+            try
             {
-                FileOutputStream fos = null;
-                try
-                {
-                    fos = context.openFileOutput("bogus", Context.MODE_PRIVATE);
-                    fos.write("justcreatedfilesdirectory".getBytes());
-                }
-                catch (Exception ex)
-                {
-                    if (RootTools.debugMode)
-                    {
-                        Log.e(LOG_TAG, ex.toString());
-                    }
-                    return false;
-                }
-                finally
-                {
-                    if (null != fos)
-                    {
-                        try
-                        {
-                            fos.close();
-                            context.deleteFile(BOGUS_FILE_NAME);
-                        }
-                        catch (IOException e1)
-                        {
-                        }
-                    }
-                }
+                digest = copy(iss, tmp);
             }
             catch (IOException ex)
             {
@@ -132,63 +130,70 @@ class Installer
                 {
                     Log.e(LOG_TAG, ex.toString());
                 }
+                tmp.delete();
                 return false;
             }
-
-            // Only now can we start creating our actual file
-            InputStream iss = context.getResources().openRawResource(sourceId);
-            ReadableByteChannel rfc = Channels.newChannel(iss);
-            FileOutputStream oss = null;
-            try
+            finally
             {
-                oss = new FileOutputStream(mf);
-                FileChannel ofc = oss.getChannel();
-                long pos = 0;
                 try
                 {
-                    long size = iss.available();
-                    while ((pos += ofc.transferFrom(rfc, pos, size - pos)) < size)
-                    {
-                        ;
-                    }
+                    iss.close();
                 }
-                catch (IOException ex)
+                catch (IOException e)
                 {
-                    if (RootTools.debugMode)
-                    {
-                        Log.e(LOG_TAG, ex.toString());
-                    }
-                    return false;
                 }
             }
-            catch (FileNotFoundException ex)
+
+            Command command = new Command(0, false, "chmod " + mode + " " + tmp.getPath());
+
+            try
             {
-                if (RootTools.debugMode)
-                {
-                    Log.e(LOG_TAG, ex.toString());
-                }
+                Shell.startRootShell().add(command);
+            }
+            catch (Exception e)
+            {
+                command = null;
+            }
+
+            if (command != null && !commandWait(command))
+            {
+                tmp.delete();
                 return false;
             }
-            finally
+
+            if (!tmp.renameTo(mf))
             {
-                if (oss != null)
-                {
-                    try
-                    {
-                        oss.flush();
-                        oss.getFD().sync();
-                        oss.close();
-                    }
-                    catch (Exception e)
-                    {
-                    }
-                }
+                Log.e(LOG_TAG, "Unable to move " + tmp + " to " + mf);
+                tmp.delete();
+                return false;
             }
+
+            index.setProperty(destName, record(stamp, mf, digest));
+            writeIndex(index);
+        }
+        return true;
+    }
+
+    /**
+     * Our files/ directory may not exist yet, and we cannot wait for android to lazily create it
+     * as we will soon need it.
+     */
+    private boolean createFilesDirectory()
+    {
+        try
+        {
+            FileInputStream fis = context.openFileInput(BOGUS_FILE_NAME);
+            fis.close();
+        }
+        catch (FileNotFoundException e)
+        {
+            FileOutputStream fos = null;
             try
             {
-                iss.close();
+                fos = context.openFileOutput("bogus", Context.MODE_PRIVATE);
+                fos.write("justcreatedfilesdirectory".getBytes());
             }
-            catch (IOException ex)
+            catch (Exception ex)
             {
                 if (RootTools.debugMode)
                 {
@@ -196,21 +201,45 @@ class Installer
                 }
                 return false;
             }
-
-            try
+            finally
             {
-                Command command = new Command(0, false, "chmod " + mode + " " + filesPath + File.separator + destName);
-                Shell.startRootShell().add(command);
-                commandWait(command);
-
+                if (null != fos)
+                {
+                    try
+                    {
+                        fos.close();
+                        context.deleteFile(BOGUS_FILE_NAME);
+                    }
+                    catch (IOException e1)
+                    {
+                    }
+                }
             }
-            catch (Exception e)
+        }
+        catch (IOException ex)
+        {
+            if (RootTools.debugMode)
             {
+                Log.e(LOG_TAG, ex.toString());
             }
+            return false;
         }
+
         return true;
     }
 
+    /**
+     * Identifies the version of a raw resource without reading it. Resources only change when
+     * the app is updated, which replaces the apk.
+     */
+    private String getResourceStamp(int sourceId)
+    {
+        String apk = context.getApplicationInfo().sourceDir;
+        File f = apk == null ? null : new File(apk);
+
+        return sourceId + ":" + (f == null ? 0 : f.length()) + ":" + (f == null ? 0 : f.lastModified());
+    }
+
     protected boolean isBinaryInstalled(String destName)
     {
         boolean installed = false;
@@ -223,81 +252,221 @@ class Installer
         return installed;
     }
 
-    protected String getFileSignature(File f)
+    /**
+     * @return true if the index says the file was installed from the resource with this stamp
+     * and the file was not touched since. A file that was touched is hashed once to find out
+     * whether it still is what we installed.
+     */
+    static boolean isCurrent(Properties index, String destName, String stamp, File mf)
     {
-        String signature = "";
+        String record = index.getProperty(destName);
+
+        if (record == null || !mf.exists())
+        {
+            return false;
+        }
+
+        String[] fields = record.split("\\|");
+
+        if (fields.length != 4 || !fields[0].equals(stamp))
+        {
+            return false;
+        }
+
+        if (fields[1].equals(Long.toString(mf.length()))
+                && fields[2].equals(Long.toString(mf.lastModified())))
+        {
+            return true;
+        }
+
         try
         {
-            signature = getStreamSignature(new FileInputStream(f));
+            if (fields[3].equals(getFileSignature(mf)))
+            {
+                index.setProperty(destName, record(stamp, mf, fields[3]));
+                return true;
+            }
         }
-        catch (FileNotFoundException ex)
+        catch (IOException ex)
         {
             Log.e(LOG_TAG, ex.toString());
         }
-        return signature;
+
+        return false;
     }
 
-    /*
-     * Note: this method will close any string passed to it
-     */
-    protected String getStreamSignature(InputStream is)
+    static String record(String stamp, File mf, String digest)
     {
-        String signature = "";
-        try
+        return stamp + "|" + mf.length() + "|" + mf.lastModified() + "|" + digest;
+    }
+
+    private Properties readIndex()
+    {
+        Properties index = new Properties();
+        File f = new File(filesPath + File.separator + DIGEST_INDEX);
+
+        if (f.exists())
         {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            DigestInputStream dis = new DigestInputStream(is, md);
-            byte[] buffer = new byte[4096];
-            while (-1 != dis.read(buffer))
+            FileInputStream fis = null;
+            try
             {
-                ;
+                fis = new FileInputStream(f);
+                index.load(fis);
             }
-            byte[] digest = md.digest();
-            StringBuffer sb = new StringBuffer();
-
-            for (int i = 0; i < digest.length; i++)
+            catch (IOException ex)
+            {
+                Log.e(LOG_TAG, ex.toString());
+                index.clear();
+            }
+            finally
             {
-                sb.append(Integer.toHexString(digest[i] & 0xFF));
+                closeQuietly(fis);
             }
+        }
+
+        return index;
+    }
+
+    private void writeIndex(Properties index)
+    {
+        File f = new File(filesPath + File.separator + DIGEST_INDEX);
+        File tmp = new File(f.getPath() + TMP_SUFFIX);
+        FileOutputStream fos = null;
 
-            signature = sb.toString();
+        try
+        {
+            fos = new FileOutputStream(tmp);
+            index.store(fos, null);
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+
+            if (!tmp.renameTo(f))
+            {
+                Log.e(LOG_TAG, "Unable to move " + tmp + " to " + f);
+            }
         }
         catch (IOException ex)
         {
             Log.e(LOG_TAG, ex.toString());
         }
-        catch (NoSuchAlgorithmException ex)
+        finally
         {
-            Log.e(LOG_TAG, ex.toString());
+            closeQuietly(fos);
         }
-        finally
+    }
+
+    /**
+     * Copies the stream into dest and hashes it on the way, reading it only once. The stream is
+     * read until it ends rather than for as long as <code>available()</code> says, which is only
+     * an estimate for compressed resources.
+     *
+     * @return the digest of what was written.
+     */
+    static String copy(InputStream is, File dest) throws IOException
+    {
+        MessageDigest md = newDigest();
+        FileOutputStream oss = new FileOutputStream(dest);
+
+        try
         {
-            try
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+
+            while ((n = is.read(buffer)) != -1)
             {
-                is.close();
+                md.update(buffer, 0, n);
+                oss.write(buffer, 0, n);
             }
-            catch (IOException e)
+
+            oss.flush();
+            oss.getFD().sync();
+        }
+        finally
+        {
+            closeQuietly(oss);
+        }
+
+        return toHex(md.digest());
+    }
+
+    static String getFileSignature(File f) throws IOException
+    {
+        MessageDigest md = newDigest();
+        FileInputStream fis = new FileInputStream(f);
+
+        try
+        {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+
+            while ((n = fis.read(buffer)) != -1)
             {
+                md.update(buffer, 0, n);
             }
         }
-        return signature;
+        finally
+        {
+            closeQuietly(fis);
+        }
+
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newDigest() throws IOException
+    {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST);
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IOException(ex.toString());
+        }
     }
 
-    private void commandWait(Command cmd)
+    private static String toHex(byte[] digest)
     {
-        synchronized (cmd)
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+
+        for (byte b : digest)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        if (c != null)
         {
             try
             {
-                if (!cmd.isFinished())
-                {
-                    cmd.wait(2000);
-                }
+                c.close();
             }
-            catch (InterruptedException ex)
+            catch (IOException e)
             {
-                Log.e(LOG_TAG, ex.toString());
             }
         }
     }
+
+    /**
+     * @return false if we were interrupted while waiting, the interrupt is kept for our caller
+     */
+    private boolean commandWait(Command cmd)
+    {
+        try
+        {
+            cmd.waitForFinish();
+            return true;
+        }
+        catch (InterruptedException ex)
+        {
+            Log.e(LOG_TAG, ex.toString());
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 }
@@ -0,0 +1,394 @@
+/*
+ * This file is part of the RootTools Project: http://code.google.com/p/RootTools/
+ *
+ * Copyright (c) 2012 Stephen Erickson, Chris Ravenscroft, Dominik Schuermann, Adam Shanks
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+
+package com.stericson.RootTools.internal;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.Constants;
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.containers.Mount;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Cached table of the mounted filesystems.
+ * <p/>
+ * The table is read straight from /proc/self/mountinfo when the app can read it, and from
+ * "cat /proc/mounts" in the root shell otherwise. Mount points are kept in a trie keyed by path
+ * component, so finding the mount a path lives on is a walk down the path instead of a scan of
+ * every mount.
+ * <p/>
+ * On API 21 and up the table is only read again after the kernel flags /proc/self/mounts as
+ * changed. Below that it is read again for every lookup. Either way {@link #invalidate()} forces
+ * a fresh read, which is what the Remounter does after it remounts something.
+ * <p/>
+ * Keep in mind that /proc/self reflects the mount namespace of the app, which on some devices
+ * differs from the one of the root shell.
+ */
+public class MountTable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MOUNTINFO = "/proc/self/mountinfo";
+
+    private static final String MOUNTS = "/proc/self/mounts";
+
+    private static MountTable instance = null;
+
+    private List<Mount> mounts = null;
+
+    private Node root = null;
+
+    //kept open so the kernel can tell us when the mounts change
+    private FileInputStream watch = null;
+
+    private boolean watchFailed = false;
+
+    MountTable() {
+    }
+
+    public static synchronized MountTable getInstance() {
+        if (instance == null) {
+            instance = new MountTable();
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return every mount, in the order the kernel lists them.
+     * @throws Exception if the mounts cannot be read.
+     */
+    public synchronized List<Mount> getMounts() throws Exception {
+        refresh();
+        return mounts;
+    }
+
+    /**
+     * Finds the mount the given path lives on, which is the mount with the longest mount point
+     * that is the path itself or one of its parents.
+     *
+     * @param path absolute path of a file or directory, it does not need to exist.
+     * @return the mount, or null if no mount point covers the path.
+     * @throws Exception if the mounts cannot be read.
+     */
+    public synchronized Mount findMount(String path) throws Exception {
+        refresh();
+
+        Node node = root;
+        Mount found = node.mount;
+
+        int start = 0;
+        int length = path.length();
+
+        while (start < length && node != null) {
+            int end = path.indexOf('/', start);
+
+            if (end == -1) {
+                end = length;
+            }
+
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+
+                if (node != null && node.mount != null) {
+                    found = node.mount;
+                }
+            }
+
+            start = end + 1;
+        }
+
+        return found;
+    }
+
+    /**
+     * Drops the cached mounts, the next lookup reads them again.
+     */
+    public synchronized void invalidate() {
+        mounts = null;
+        root = null;
+    }
+
+    private void refresh() throws Exception {
+        if (mounts != null && !changed()) {
+            return;
+        }
+
+        List<Mount> fresh = load();
+
+        mounts = Collections.unmodifiableList(fresh);
+        root = index(fresh);
+    }
+
+    List<Mount> load() throws Exception {
+        File mountInfo = new File(MOUNTINFO);
+
+        if (mountInfo.canRead()) {
+            try {
+                List<Mount> fresh = parseMountInfo(read(mountInfo));
+
+                if (!fresh.isEmpty()) {
+                    return fresh;
+                }
+            } catch (IOException e) {
+                RootTools.log(Constants.TAG, "Could not read " + MOUNTINFO + ", asking the shell: " + e);
+            }
+        }
+
+        return readFromShell();
+    }
+
+    /**
+     * @return true if the mounts may have changed since they were read.
+     */
+    private boolean changed() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || watchFailed) {
+            return true;
+        }
+
+        return pollMounts();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private boolean pollMounts() {
+        try {
+            if (watch == null) {
+                //nothing to compare against yet, whatever we read from now on is current
+                watch = new FileInputStream(MOUNTS);
+                return true;
+            }
+
+            StructPollfd fd = new StructPollfd();
+            fd.fd = watch.getFD();
+            fd.events = (short) OsConstants.POLLPRI;
+
+            Os.poll(new StructPollfd[]{fd}, 0);
+
+            return (fd.revents & (OsConstants.POLLPRI | OsConstants.POLLERR)) != 0;
+        } catch (Throwable e) {
+            RootTools.log(Constants.TAG, "Cannot watch " + MOUNTS + " for changes: " + e);
+            watchFailed = true;
+            return true;
+        }
+    }
+
+    private List<Mount> readFromShell() throws Exception {
+        final List<Mount> result = new ArrayList<Mount>();
+        Shell shell = RootTools.getShell(true);
+
+        Command cmd = new Command(Constants.GET_MOUNTS, false, "cat /proc/mounts") {
+            @Override
+            public void commandOutput(int id, String line) {
+                Mount mount = parseMountsLine(line);
+
+                if (mount != null) {
+                    synchronized (result) {
+                        result.add(mount);
+                    }
+                }
+
+                super.commandOutput(id, line);
+            }
+        };
+        cmd.setRunInShell(false);
+        shell.add(cmd);
+
+        try {
+            cmd.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+
+        synchronized (result) {
+            return new ArrayList<Mount>(result);
+        }
+    }
+
+    /**
+     * /proc files report a size of 0, so read until the end instead of trusting the length.
+     */
+    static String read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+            while (channel.read(buffer) != -1) {
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    bigger.put(buffer);
+                    buffer = bigger;
+                }
+            }
+
+            return new String(buffer.array(), 0, buffer.position(), UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Lines look like
+     * "36 35 98:0 /mnt1 /mnt/parent rw,noatime master:1 - ext3 /dev/root rw,errors=continue",
+     * the optional fields end at the lone "-".
+     */
+    static List<Mount> parseMountInfo(String content) {
+        List<Mount> result = new ArrayList<Mount>();
+
+        for (String line : content.split("\n")) {
+            String[] fields = line.split(" ");
+
+            int separator = -1;
+
+            for (int i = 6; i < fields.length; i++) {
+                if ("-".equals(fields[i])) {
+                    separator = i;
+                    break;
+                }
+            }
+
+            if (separator == -1 || separator + 3 > fields.length) {
+                continue;
+            }
+
+            //the mount options come first so the flags still start with rw or ro
+            String flags = fields[5];
+
+            if (separator + 3 < fields.length) {
+                flags += "," + fields[separator + 3];
+            }
+
+            result.add(new Mount(new File(unescape(fields[separator + 2])), // device
+                    new File(unescape(fields[4])), // mountPoint
+                    fields[separator + 1], // fstype
+                    flags
+            ));
+        }
+
+        return result;
+    }
+
+    static Mount parseMountsLine(String line) {
+        String[] fields = line.split(" ");
+
+        if (fields.length > 3) {
+            return new Mount(new File(unescape(fields[0])), // device
+                    new File(unescape(fields[1])), // mountPoint
+                    fields[2], // fstype
+                    fields[3] // flags
+            );
+        }
+
+        return null;
+    }
+
+    /**
+     * The kernel writes spaces, tabs, newlines and backslashes in paths as octal escapes.
+     */
+    static String unescape(String field) {
+        if (field.indexOf('\\') == -1) {
+            return field;
+        }
+
+        StringBuilder sb = new StringBuilder(field.length());
+
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+
+            if (c == '\\' && i + 3 < field.length() && isOctal(field, i + 1, i + 4)) {
+                sb.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+                i += 3;
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static boolean isOctal(String s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+
+            if (c < '0' || c > '7') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Node index(List<Mount> mounts) {
+        Node root = new Node();
+
+        for (Mount mount : mounts) {
+            Node node = root;
+
+            for (String part : mount.getMountPoint().getAbsolutePath().split("/")) {
+                if (part.length() == 0) {
+                    continue;
+                }
+
+                Node child = node.children.get(part);
+
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(part, child);
+                }
+
+                node = child;
+            }
+
+            //mounts stacked on the same mount point are listed oldest first, the last one is visible
+            node.mount = mount;
+        }
+
+        return root;
+    }
+
+    private static final class Node {
+
+        final HashMap<String, Node> children = new HashMap<String, Node>();
+
+        Mount mount = null;
+    }
+}
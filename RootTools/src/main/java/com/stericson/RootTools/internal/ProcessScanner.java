@@ -0,0 +1,431 @@
+/*
+ * This file is part of the RootTools Project: http://code.google.com/p/RootTools/
+ *
+ * Copyright (c) 2012 Stephen Erickson, Chris Ravenscroft, Dominik Schuermann, Adam Shanks
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.Constants;
+import com.stericson.RootTools.RootTools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a table of the running processes by reading /proc/&lt;pid&gt;/stat and
+ * /proc/&lt;pid&gt;/cmdline directly, instead of running and parsing ps.
+ * <p/>
+ * When the app may not see every process, which is the case when /proc is mounted with
+ * hidepid or a process cannot be read, the table is taken with a single root shell command
+ * that dumps the same files with two cat processes, whatever the number of processes.
+ */
+public final class ProcessScanner {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String CMDLINE_MARKER = "cmdline:";
+
+    //ends every cmdline of the shell dump: a line of its own that no command line is going to contain
+    private static final String SEPARATOR_FILE = "/proc/sys/kernel/random/boot_id";
+
+    /**
+     * The loop only uses shell builtins, so there is no fork per process: it lists the pids
+     * and the files for one cat, the separator first and then after every cmdline.
+     */
+    static final String[] SHELL_DUMP = {
+            "cat /proc/[0-9]*/stat 2>/dev/null",
+            "pids=; files=; for p in /proc/[0-9]*; do pids=\"$pids ${p#/proc/}\"; files=\"$files $p/cmdline " + SEPARATOR_FILE + "\"; done",
+            "echo \"" + CMDLINE_MARKER + "$pids\"",
+            "cat " + SEPARATOR_FILE + " $files 2>/dev/null"
+    };
+
+    private static ProcessScanner instance = null;
+
+    //reused for every file read by a scan
+    private final byte[] buffer = new byte[4096];
+
+    private final File proc;
+
+    ProcessScanner(File proc) {
+        this.proc = proc;
+    }
+
+    public static synchronized ProcessScanner getInstance() {
+        if (instance == null) {
+            instance = new ProcessScanner(new File("/proc"));
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return the processes running right now.
+     */
+    public synchronized Snapshot scan() {
+        Snapshot snapshot = scanDirect();
+
+        if (snapshot == null) {
+            RootTools.log(Constants.TAG, "Not every process is visible, asking the root shell");
+
+            try {
+                snapshot = scanWithShell();
+            } catch (Exception e) {
+                RootTools.log(Constants.TAG, "Could not list the processes with the root shell: " + e);
+
+                //better what we can see than nothing at all
+                snapshot = scanDirect(false);
+            }
+        }
+
+        return snapshot;
+    }
+
+    private Snapshot scanDirect() {
+        //init is always there, if we cannot see it /proc hides the processes of others
+        if (!new File(proc, "1").exists()) {
+            return null;
+        }
+
+        return scanDirect(true);
+    }
+
+    /**
+     * @param strict give up, returning null, as soon as a process cannot be read.
+     */
+    private Snapshot scanDirect(boolean strict) {
+        String[] entries = proc.list();
+
+        if (entries == null) {
+            return strict ? null : new Snapshot(new LinkedHashMap<Integer, String[]>());
+        }
+
+        Map<Integer, String[]> processes = new LinkedHashMap<Integer, String[]>();
+
+        for (String entry : entries) {
+            if (entry.length() == 0 || !Character.isDigit(entry.charAt(0))) {
+                continue;
+            }
+
+            int pid;
+
+            try {
+                pid = Integer.parseInt(entry);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            String comm;
+            String argv0;
+
+            try {
+                comm = parseComm(buffer, read(new File(proc, entry + "/stat")));
+                argv0 = parseArgv0(buffer, read(new File(proc, entry + "/cmdline")));
+            } catch (IOException e) {
+                if (!new File(proc, entry).exists()) {
+                    //the process ended while we were looking at it
+                    continue;
+                }
+
+                if (strict) {
+                    return null;
+                }
+
+                continue;
+            }
+
+            processes.put(pid, new String[]{comm, argv0});
+        }
+
+        return new Snapshot(processes);
+    }
+
+    private Snapshot scanWithShell() throws Exception {
+        final ShellDump dump = new ShellDump();
+        final Map<Integer, String[]> processes = dump.processes;
+
+        Command command = new Command(Constants.PS, false, SHELL_DUMP) {
+            @Override
+            public void commandOutput(int id, String line) {
+                synchronized (processes) {
+                    dump.parse(line);
+                }
+
+                super.commandOutput(id, line);
+            }
+        };
+        command.setRunInShell(false);
+
+        Shell shell = RootTools.getShell(true);
+        shell.add(command);
+
+        try {
+            command.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+
+        if (command.getExitCode() != 0 && processes.isEmpty()) {
+            throw new IOException("Listing /proc failed with exit code " + command.getExitCode());
+        }
+
+        synchronized (processes) {
+            return new Snapshot(new LinkedHashMap<Integer, String[]>(processes));
+        }
+    }
+
+    /**
+     * Reads the output of the root shell command: first a stat line for every process,
+     * "&lt;pid&gt; (&lt;comm&gt;) &lt;state&gt; ...", then "cmdline: &lt;pid&gt; &lt;pid&gt; ...", the separator
+     * on a line of its own and then for each of those pids, in order, its cmdline followed by
+     * the separator. A cmdline may span several lines.
+     */
+    static final class ShellDump {
+
+        final Map<Integer, String[]> processes = new LinkedHashMap<Integer, String[]>();
+
+        private String[] cmdlinePids = null;
+
+        private String separator = null;
+
+        private final StringBuilder cmdline = new StringBuilder();
+
+        private int next = 0;
+
+        void parse(String line) {
+            try {
+                if (separator != null) {
+                    if (!line.endsWith(separator)) {
+                        cmdline.append(line).append('\n');
+                        return;
+                    }
+
+                    cmdline.append(line, 0, line.length() - separator.length());
+
+                    if (next < cmdlinePids.length) {
+                        cmdline(Integer.valueOf(cmdlinePids[next++]));
+                    }
+
+                    cmdline.setLength(0);
+                } else if (cmdlinePids != null) {
+                    separator = line;
+                } else if (line.startsWith(CMDLINE_MARKER)) {
+                    String pids = line.substring(CMDLINE_MARKER.length()).trim();
+                    cmdlinePids = pids.length() == 0 ? new String[0] : pids.split(" +");
+                } else {
+                    int open = line.indexOf(" (");
+                    int close = line.lastIndexOf(')');
+
+                    if (open > 0 && close > open) {
+                        processes.put(Integer.valueOf(line.substring(0, open)),
+                                new String[]{line.substring(open + 2, close), ""});
+                    }
+                }
+            } catch (NumberFormatException ignore) {
+            }
+        }
+
+        /**
+         * A process that ended before cat got to it leaves an empty cmdline, like a kernel thread.
+         */
+        private void cmdline(Integer pid) {
+            String[] process = processes.get(pid);
+
+            if (process == null) {
+                return;
+            }
+
+            int nul = cmdline.indexOf("\0");
+            process[1] = cmdline.substring(0, nul != -1 ? nul : cmdline.length());
+        }
+    }
+
+    /**
+     * @return the number of bytes read into the buffer, files larger than the buffer are cut off.
+     */
+    private int read(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            int length = 0;
+            int n;
+
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += n;
+            }
+
+            return length;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * The name sits between the first "(" and the last ")", it may contain both.
+     */
+    static String parseComm(byte[] stat, int length) {
+        int open = -1;
+        int close = -1;
+
+        for (int i = 0; i < length; i++) {
+            if (stat[i] == '(' && open == -1) {
+                open = i;
+            } else if (stat[i] == ')') {
+                close = i;
+            }
+        }
+
+        if (open == -1 || close < open) {
+            return "";
+        }
+
+        return new String(stat, open + 1, close - open - 1, UTF_8);
+    }
+
+    /**
+     * The arguments are separated, and ended, by NUL. Kernel threads have none.
+     */
+    static String parseArgv0(byte[] cmdline, int length) {
+        int end = 0;
+
+        while (end < length && cmdline[end] != 0) {
+            end++;
+        }
+
+        return new String(cmdline, 0, end, UTF_8);
+    }
+
+    /**
+     * The processes that were running when the snapshot was taken, indexed by name. A process
+     * is known by the name in its stat, by the first argument it was started with and by the
+     * last path segment of that argument.
+     */
+    public static final class Snapshot {
+
+        private final Map<Integer, String[]> processes;
+
+        private final Map<String, List<Integer>> byName = new HashMap<String, List<Integer>>();
+
+        private final long takenAt = System.currentTimeMillis();
+
+        Snapshot(Map<Integer, String[]> processes) {
+            this.processes = processes;
+
+            for (Map.Entry<Integer, String[]> process : processes.entrySet()) {
+                String comm = process.getValue()[0];
+                String argv0 = process.getValue()[1];
+
+                index(comm, process.getKey());
+
+                if (argv0.length() > 0 && !argv0.equals(comm)) {
+                    index(argv0, process.getKey());
+
+                    String base = argv0.substring(argv0.lastIndexOf('/') + 1);
+
+                    if (!base.equals(comm) && !base.equals(argv0)) {
+                        index(base, process.getKey());
+                    }
+                }
+            }
+        }
+
+        private void index(String name, Integer pid) {
+            List<Integer> pids = byName.get(name);
+
+            if (pids == null) {
+                pids = new ArrayList<Integer>(1);
+                byName.put(name, pids);
+            }
+
+            pids.add(pid);
+        }
+
+        /**
+         * @return the pids of the processes with exactly this name.
+         */
+        public List<Integer> getPids(String name) {
+            List<Integer> pids = byName.get(name);
+            return pids == null ? Collections.<Integer>emptyList() : Collections.unmodifiableList(pids);
+        }
+
+        /**
+         * Matches like grep on the output of ps did: every process with a name that contains
+         * the given text.
+         *
+         * @return the pids of the matching processes, in the order /proc lists them.
+         */
+        public List<Integer> findPids(String text) {
+            List<Integer> pids = new ArrayList<Integer>();
+
+            for (Map.Entry<Integer, String[]> process : processes.entrySet()) {
+                String[] names = process.getValue();
+
+                if (names[0].contains(text) || names[1].contains(text)) {
+                    pids.add(process.getKey());
+                }
+            }
+
+            return pids;
+        }
+
+        public boolean isRunning(String name) {
+            return byName.containsKey(name) || !findPids(name).isEmpty();
+        }
+
+        /**
+         * @return the name in the stat of the process, or null if there was no such process.
+         */
+        public String getName(int pid) {
+            String[] names = processes.get(pid);
+            return names == null ? null : names[0];
+        }
+
+        /**
+         * @return the first argument the process was started with, empty for kernel threads,
+         * or null if there was no such process.
+         */
+        public String getCommand(int pid) {
+            String[] names = processes.get(pid);
+            return names == null ? null : names[1];
+        }
+
+        public List<Integer> getAllPids() {
+            return new ArrayList<Integer>(processes.keySet());
+        }
+
+        public int size() {
+            return processes.size();
+        }
+
+        public long getTakenAt() {
+            return takenAt;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of the RootTools Project: http://code.google.com/p/RootTools/
+ *
+ * Copyright (c) 2012 Stephen Erickson, Chris Ravenscroft, Dominik Schuermann, Adam Shanks
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootShell.RootShell;
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.Constants;
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.containers.Mount;
+
+/**
+ * Decides which mount binary and which way of passing the arguments remounts a partition on
+ * this device, and remembers it.
+ * <p/>
+ * The first remount tries the candidates one command at a time, most likely first, and stops at
+ * the first one that succeeds. Every remount after that runs exactly one command. Should the
+ * remembered way stop working, the candidates are tried again.
+ */
+class RemountPlanner
+{
+
+    //the ways mount has been seen to accept a remount
+    static final int MOUNT_POINT = 0;
+    static final int DEVICE_AND_MOUNT_POINT = 1;
+    static final int MODE_FIRST_DEVICE = 2;
+    static final int MODE_FIRST_MOUNT_POINT = 3;
+
+    //the mount on the path first, it is toybox's on every Android since M
+    static final String[] TOOLS = {"mount", "toybox", "busybox", "toolbox"};
+
+    static final int[] SYNTAXES = {MOUNT_POINT, DEVICE_AND_MOUNT_POINT, MODE_FIRST_DEVICE, MODE_FIRST_MOUNT_POINT};
+
+    private static RemountPlanner instance = null;
+
+    private String chosenTool = null;
+
+    private int chosenSyntax = -1;
+
+    RemountPlanner()
+    {
+    }
+
+    static synchronized RemountPlanner getInstance()
+    {
+        if (instance == null)
+        {
+            instance = new RemountPlanner();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Runs the remount command.
+     *
+     * @param mount     the mount to remount.
+     * @param mountType "rw" or "ro".
+     * @return true if a mount command accepted the remount. Whether the flags really changed is
+     * up to the caller to check.
+     */
+    synchronized boolean remount(Mount mount, String mountType)
+    {
+        if (chosenTool != null)
+        {
+            if (run(buildCommand(chosenTool, chosenSyntax, mount, mountType)) == 0)
+            {
+                return true;
+            }
+
+            RootTools.log(Constants.TAG, "Remounting with " + chosenTool + " failed, looking for another way");
+        }
+
+        for (String tool : TOOLS)
+        {
+            if (!hasTool(tool))
+            {
+                continue;
+            }
+
+            for (int syntax : SYNTAXES)
+            {
+                if (tool.equals(chosenTool) && syntax == chosenSyntax)
+                {
+                    continue;
+                }
+
+                if (run(buildCommand(tool, syntax, mount, mountType)) == 0)
+                {
+                    RootTools.log(Constants.TAG, "Remounting with " + tool + " (" + syntax + ") from now on");
+                    chosenTool = tool;
+                    chosenSyntax = syntax;
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the mount binary that worked last, or null if none did yet.
+     */
+    synchronized String getChosenTool()
+    {
+        return chosenTool;
+    }
+
+    synchronized int getChosenSyntax()
+    {
+        return chosenSyntax;
+    }
+
+    static String buildCommand(String tool, int syntax, Mount mount, String mountType)
+    {
+        String binary = tool.equals("mount") ? "mount" : tool + " mount";
+        String device = mount.getDevice().getAbsolutePath();
+        String mountPoint = mount.getMountPoint().getAbsolutePath();
+
+        switch (syntax)
+        {
+            case DEVICE_AND_MOUNT_POINT:
+                return binary + " -o remount," + mountType + " " + device + " " + mountPoint;
+            case MODE_FIRST_DEVICE:
+                return binary + " -o " + mountType + ",remount " + device;
+            case MODE_FIRST_MOUNT_POINT:
+                return binary + " -o " + mountType + ",remount " + mountPoint;
+            default:
+                return binary + " -o remount," + mountType + " " + mountPoint;
+        }
+    }
+
+    /**
+     * @return whether the binary is there, answered from the cached directory listings.
+     */
+    boolean hasTool(String tool)
+    {
+        return !RootShell.findBinary(tool, true).isEmpty();
+    }
+
+    /**
+     * @return the exit code of the command, -1 if it could not be run.
+     */
+    int run(String command)
+    {
+        try
+        {
+            Command cmd = new Command(0, false, command);
+            Shell.startRootShell().add(cmd);
+
+            cmd.waitForFinish();
+
+            return cmd.getExitCode();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+        catch (Exception e)
+        {
+            if (RootTools.debugMode)
+            {
+                e.printStackTrace();
+            }
+            return -1;
+        }
+    }
+}
@@ -22,12 +22,6 @@
 
 package com.stericson.RootTools.internal;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
-
-import com.stericson.RootShell.execution.Command;
-import com.stericson.RootShell.execution.Shell;
 import com.stericson.RootTools.Constants;
 import com.stericson.RootTools.RootTools;
 import com.stericson.RootTools.containers.Mount;
@@ -35,6 +29,18 @@ import com.stericson.RootTools.containers.Mount;
 public class Remounter
 {
 
+    private final RemountPlanner planner;
+
+    public Remounter()
+    {
+        this(RemountPlanner.getInstance());
+    }
+
+    Remounter(RemountPlanner planner)
+    {
+        this.planner = planner;
+    }
+
     //-------------
     //# Remounter #
     //-------------
@@ -63,47 +69,27 @@ public class Remounter
         {
             file = file.substring(0, file.lastIndexOf("/"));
         }
-        //Make sure that what we are trying to remount is in the mount list.
-        boolean foundMount = false;
+        //Find the mount the path lives on, this is where the path ends up after walking up its parents.
+        MountTable mountTable = MountTable.getInstance();
+        Mount mountPoint;
 
-        while (!foundMount)
+        try
         {
-            try
-            {
-                for (Mount mount : RootTools.getMounts())
-                {
-                    RootTools.log(mount.getMountPoint().toString());
-
-                    if (file.equals(mount.getMountPoint().toString()))
-                    {
-                        foundMount = true;
-                        break;
-                    }
-                }
-            }
-            catch (Exception e)
-            {
-                if (RootTools.debugMode)
-                {
-                    e.printStackTrace();
-                }
-                return false;
-            }
-            if (!foundMount)
+            mountPoint = mountTable.findMount(file);
+        }
+        catch (Exception e)
+        {
+            if (RootTools.debugMode)
             {
-                try
-                {
-                    file = (new File(file).getParent());
-                }
-                catch (Exception e)
-                {
-                    e.printStackTrace();
-                    return false;
-                }
+                e.printStackTrace();
             }
+            return false;
         }
 
-        Mount mountPoint = findMountPointRecursive(file);
+        if (mountPoint != null)
+        {
+            file = mountPoint.getMountPoint().getAbsolutePath();
+        }
 
         if (mountPoint != null)
         {
@@ -113,36 +99,10 @@ public class Remounter
 
             if (!isMountMode)
             {
-                //grab an instance of the internal class
-                try
-                {
-                    Command command = new Command(0,
-                            true,
-                            "busybox mount -o remount," + mountType.toLowerCase() + " " + mountPoint.getDevice().getAbsolutePath() + " " + mountPoint.getMountPoint().getAbsolutePath(),
-                            "busybox mount -o remount," + mountType.toLowerCase() + " " + file,
-                            "busybox mount -o " + mountType.toLowerCase() + ",remount " + mountPoint.getDevice().getAbsolutePath(),
-                            "busybox mount -o " + mountType.toLowerCase() + ",remount " + file,
-                            "toolbox mount -o remount," + mountType.toLowerCase() + " " + mountPoint.getDevice().getAbsolutePath() + " " + mountPoint.getMountPoint().getAbsolutePath(),
-                            "toolbox mount -o remount," + mountType.toLowerCase() + " " + file,                             "toybox mount -o remount," + mountType.toLowerCase() + " " + mountPoint.getDevice().getAbsolutePath() + " " + mountPoint.getMountPoint().getAbsolutePath(),
-                            "toolbox mount -o " + mountType.toLowerCase() + ",remount " + mountPoint.getDevice().getAbsolutePath(),
-                            "toolbox mount -o " + mountType.toLowerCase() + ",remount " + file,
-                            "mount -o remount," + mountType.toLowerCase() + " " + mountPoint.getDevice().getAbsolutePath() + " " + mountPoint.getMountPoint().getAbsolutePath(),
-                            "mount -o remount," + mountType.toLowerCase() + " " + file,
-                            "mount -o " + mountType.toLowerCase() + ",remount " + mountPoint.getDevice().getAbsolutePath(),
-                            "mount -o " + mountType.toLowerCase() + ",remount " + file,
-                            "toybox mount -o remount," + mountType.toLowerCase() + " " + mountPoint.getDevice().getAbsolutePath() + " " + mountPoint.getMountPoint().getAbsolutePath(),
-                            "toybox mount -o remount," + mountType.toLowerCase() + " " + file,
-                            "toybox mount -o " + mountType.toLowerCase() + ",remount " + mountPoint.getDevice().getAbsolutePath(),
-                            "toybox mount -o " + mountType.toLowerCase() + ",remount " + file);
-                    Shell.startRootShell().add(command);
-                    commandWait(command);
-
-                }
-                catch (Exception e)
-                {
-                }
+                planner.remount(mountPoint, mountType.toLowerCase());
 
-                mountPoint = findMountPointRecursive(file);
+                mountTable.invalidate();
+                mountPoint = findMountPointRecursive(mountTable, file);
             }
 
             if (mountPoint != null)
@@ -172,32 +132,11 @@ public class Remounter
         return false;
     }
 
-    private Mount findMountPointRecursive(String file)
+    private Mount findMountPointRecursive(MountTable mountTable, String file)
     {
         try
         {
-            ArrayList<Mount> mounts = RootTools.getMounts();
-
-            for (File path = new File(file); path != null; )
-            {
-                for (Mount mount : mounts)
-                {
-                    if (mount.getMountPoint().equals(path))
-                    {
-                        return mount;
-                    }
-                }
-            }
-
-            return null;
-
-        }
-        catch (IOException e)
-        {
-            if (RootTools.debugMode)
-            {
-                e.printStackTrace();
-            }
+            return mountTable.findMount(file);
         }
         catch (Exception e)
         {
@@ -209,22 +148,4 @@ public class Remounter
 
         return null;
     }
-
-    private void commandWait(Command cmd)
-    {
-        synchronized (cmd)
-        {
-            try
-            {
-                if (!cmd.isFinished())
-                {
-                    cmd.wait(2000);
-                }
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
-        }
-    }
 }
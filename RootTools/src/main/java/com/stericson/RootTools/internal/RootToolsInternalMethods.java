@@ -45,10 +45,14 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public final class RootToolsInternalMethods {
 
@@ -279,24 +283,20 @@ public final class RootToolsInternalMethods {
         List<String> foundPaths = RootShell.findBinary(util, true);
         if (foundPaths.size() > 0) {
 
-            for (String path : foundPaths) {
-                Permissions permissions = RootTools
-                        .getFilePermissionsSymlinks(path + "/" + util);
+            for (Map.Entry<String, Permissions> entry : statUtil(util, foundPaths).entrySet()) {
+                Permissions permissions = entry.getValue();
+                String permission;
 
-                if (permissions != null) {
-                    String permission;
-
-                    if (Integer.toString(permissions.getPermissions()).length() > 3) {
-                        permission = Integer.toString(permissions.getPermissions()).substring(1);
-                    } else {
-                        permission = Integer.toString(permissions.getPermissions());
-                    }
+                if (Integer.toString(permissions.getPermissions()).length() > 3) {
+                    permission = Integer.toString(permissions.getPermissions()).substring(1);
+                } else {
+                    permission = Integer.toString(permissions.getPermissions());
+                }
 
-                    if (permission.equals("755") || permission.equals("777")
-                            || permission.equals("775")) {
-                        RootTools.utilPath = path + "/" + util;
-                        return true;
-                    }
+                if (permission.equals("755") || permission.equals("777")
+                        || permission.equals("775")) {
+                    RootTools.utilPath = entry.getKey();
+                    return true;
                 }
             }
         }
@@ -316,14 +316,13 @@ public final class RootToolsInternalMethods {
         List<String> foundPaths = RootShell.findBinary(util, true);
         if (foundPaths.size() > 0) {
 
-            for (String path : foundPaths) {
-                Permissions permissions = RootTools
-                        .getFilePermissionsSymlinks(path + "/" + util);
+            for (Map.Entry<String, Permissions> entry : statUtil(util, foundPaths).entrySet()) {
+                Permissions permissions = entry.getValue();
 
-                if (permissions != null && (permissions.getUserPermissions().charAt(2) == 'x'
-                        || permissions.getGroupPermissions().charAt(2) == 'x'  || permissions.getOtherPermissions().charAt(2) == 'x')) {
+                if (permissions.getUserPermissions().charAt(2) == 'x'
+                        || permissions.getGroupPermissions().charAt(2) == 'x'  || permissions.getOtherPermissions().charAt(2) == 'x') {
 
-                    RootTools.utilPath = path + "/" + util;
+                    RootTools.utilPath = entry.getKey();
                     return true;
                 }
             }
@@ -333,6 +332,24 @@ public final class RootToolsInternalMethods {
 
     }
 
+    /**
+     * Reads the permissions of util in every directory it was found in with a single command.
+     */
+    private Map<String, Permissions> statUtil(String util, List<String> foundPaths) {
+        List<String> files = new ArrayList<String>();
+
+        for (String path : foundPaths) {
+            files.add(path + "/" + util);
+        }
+
+        try {
+            return statAll(files);
+        } catch (Exception e) {
+            RootTools.log(e.getMessage());
+            return Collections.emptyMap();
+        }
+    }
+
     /**
      * Deletes a file or directory
      *
@@ -630,6 +647,8 @@ public final class RootToolsInternalMethods {
      * @return String The inode number for this file or "" if the inode number could not be found.
      */
     public String getInode(String file) {
+        final AtomicReference<String> inode = new AtomicReference<String>("");
+
         try {
             Command command = new Command(Constants.GI, false, "/data/local/ls -i " + file) {
 
@@ -637,7 +656,7 @@ public final class RootToolsInternalMethods {
                 public void commandOutput(int id, String line) {
                     if (id == Constants.GI) {
                         if (!line.trim().equals("") && Character.isDigit(line.trim().substring(0, 1).toCharArray()[0])) {
-                            InternalVariables.inode = line.trim().split(" ")[0];
+                            inode.set(line.trim().split(" ")[0]);
                         }
                     }
 
@@ -647,7 +666,7 @@ public final class RootToolsInternalMethods {
             Shell.startRootShell().add(command);
             commandWait(Shell.startRootShell(), command);
 
-            return InternalVariables.inode;
+            return inode.get();
         } catch (Exception ignore) {
             return "";
         }
@@ -655,8 +674,6 @@ public final class RootToolsInternalMethods {
 
     public boolean isNativeToolsReady(int nativeToolsId, Context context) {
         RootTools.log("Preparing Native Tools");
-        InternalVariables.nativeToolsReady = false;
-
         Installer installer;
         try {
             installer = new Installer(context);
@@ -668,12 +685,11 @@ public final class RootToolsInternalMethods {
         }
 
         if (installer.isBinaryInstalled("nativetools")) {
-            InternalVariables.nativeToolsReady = true;
+            return true;
         } else {
-            InternalVariables.nativeToolsReady = installer.installBinary(nativeToolsId,
+            return installer.installBinary(nativeToolsId,
                     "nativetools", "700");
         }
-        return InternalVariables.nativeToolsReady;
     }
 
     /**
@@ -687,6 +703,8 @@ public final class RootToolsInternalMethods {
         RootTools.log("Checking permissions for " + file);
         if (RootTools.exists(file)) {
             RootTools.log(file + " was found.");
+            final AtomicReference<Permissions> result = new AtomicReference<Permissions>();
+
             try {
 
                 Command command = new Command(
@@ -717,9 +735,10 @@ public final class RootToolsInternalMethods {
                             }
 
                             try {
-                                InternalVariables.permissions = getPermissions(line);
-                                if (InternalVariables.permissions != null) {
-                                    InternalVariables.permissions.setSymlink(symlink_final);
+                                Permissions permissions = getPermissions(line);
+                                if (permissions != null) {
+                                    permissions.setSymlink(symlink_final);
+                                    result.set(permissions);
                                 }
                             } catch (Exception e) {
                                 RootTools.log(e.getMessage());
@@ -732,7 +751,7 @@ public final class RootToolsInternalMethods {
                 RootShell.getShell(true).add(command);
                 commandWait(RootShell.getShell(true), command);
 
-                return InternalVariables.permissions;
+                return result.get();
 
             } catch (Exception e) {
                 RootTools.log(e.getMessage());
@@ -743,6 +762,18 @@ public final class RootToolsInternalMethods {
         return null;
     }
 
+    /**
+     * Reads the permissions and symlink targets of many files with a single root command.
+     *
+     * @param paths the full paths of the files to look at.
+     * @return the permissions of every file that was found, keyed by its path, in the order of
+     * paths.
+     * @throws Exception if the command could not be run.
+     */
+    public Map<String, Permissions> statAll(Collection<String> paths) throws Exception {
+        return new BatchStat(this).statAll(paths);
+    }
+
     /**
      * This will return an ArrayList of the class Mount. The class mount contains the following
      * property's: device mountPoint type flags
@@ -753,40 +784,7 @@ public final class RootToolsInternalMethods {
      * @throws Exception if we cannot return the mount points.
      */
     public ArrayList<Mount> getMounts() throws Exception {
-
-        InternalVariables.mounts = new ArrayList<>();
-
-        if(null == InternalVariables.mounts || InternalVariables.mounts.isEmpty()) {
-            Shell shell = RootTools.getShell(true);
-
-            Command cmd = new Command(Constants.GET_MOUNTS,
-                    false,
-                    "cat /proc/mounts") {
-
-                @Override
-                public void commandOutput(int id, String line) {
-                    if (id == Constants.GET_MOUNTS) {
-                        RootTools.log(line);
-
-                        String[] fields = line.split(" ");
-
-                        if(fields.length > 3) {
-                            InternalVariables.mounts.add(new Mount(new File(fields[0]), // device
-                                    new File(fields[1]), // mountPoint
-                                    fields[2], // fstype
-                                    fields[3] // flags
-                            ));
-                        }
-                    }
-
-                    super.commandOutput(id, line);
-                }
-            };
-            shell.add(cmd);
-            this.commandWait(shell, cmd);
-        }
-
-        return InternalVariables.mounts;
+        return new ArrayList<Mount>(MountTable.getInstance().getMounts());
     }
 
     /**
@@ -798,31 +796,14 @@ public final class RootToolsInternalMethods {
      * @throws Exception if we cannot determine how the mount is mounted.
      */
     public String getMountedAs(String path) throws Exception {
-        InternalVariables.mounts = getMounts();
-        String mp;
-        if (InternalVariables.mounts != null) {
-            for (Mount mount : InternalVariables.mounts) {
-
-                mp = mount.getMountPoint().getAbsolutePath();
-
-                if (mp.equals("/")) {
-                    if (path.equals("/")) {
-                        return (String) mount.getFlags().toArray()[0];
-                    } else {
-                        continue;
-                    }
-                }
-
-                if (path.equals(mp) || path.startsWith(mp + "/")) {
-                    RootTools.log((String) mount.getFlags().toArray()[0]);
-                    return (String) mount.getFlags().toArray()[0];
-                }
-            }
+        Mount mount = MountTable.getInstance().findMount(path);
 
-            throw new Exception();
-        } else {
+        if (mount == null) {
             throw new Exception();
         }
+
+        RootTools.log((String) mount.getFlags().toArray()[0]);
+        return (String) mount.getFlags().toArray()[0];
     }
 
     /**
@@ -833,8 +814,8 @@ public final class RootToolsInternalMethods {
      * then the value is -1
      * @throws TimeoutException
      */
-    public long getSpace(String path) {
-        InternalVariables.getSpaceFor = path;
+    public long getSpace(final String path) {
+        final AtomicReference<String[]> result = new AtomicReference<String[]>();
         boolean found = false;
         RootTools.log("Looking for Space");
         try {
@@ -843,8 +824,8 @@ public final class RootToolsInternalMethods {
                 @Override
                 public void commandOutput(int id, String line) {
                     if (id == Constants.GS) {
-                        if (line.contains(InternalVariables.getSpaceFor.trim())) {
-                            InternalVariables.space = line.split(" ");
+                        if (line.contains(path.trim())) {
+                            result.set(line.split(" "));
                         }
                     }
 
@@ -857,10 +838,12 @@ public final class RootToolsInternalMethods {
         } catch (Exception e) {
         }
 
-        if (InternalVariables.space != null) {
+        String[] space = result.get();
+
+        if (space != null) {
             RootTools.log("First Method");
 
-            for (String spaceSearch : InternalVariables.space) {
+            for (String spaceSearch : space) {
 
                 RootTools.log(spaceSearch);
 
@@ -876,11 +859,11 @@ public final class RootToolsInternalMethods {
 
             RootTools.log("Second Method");
 
-            if (InternalVariables.space[0].length() <= 5) {
+            if (space[0].length() <= 5) {
                 targetCount = 2;
             }
 
-            for (String spaceSearch : InternalVariables.space) {
+            for (String spaceSearch : space) {
 
                 RootTools.log(spaceSearch);
                 if (spaceSearch.length() > 0) {
@@ -969,38 +952,27 @@ public final class RootToolsInternalMethods {
      * @throws Exception if we cannot return the Symlinks.
      */
     public ArrayList<Symlink> getSymlinks(String path) throws Exception {
+        final ArrayList<Symlink> symlinks = new ArrayList<Symlink>();
 
-        // this command needs find
-        if (!checkUtil("find")) {
-            throw new Exception();
-        }
-
-        InternalVariables.symlinks = new ArrayList<>();
-
-        Command command = new Command(0, false, "find " + path + " -type l -exec ls -l {} \\;") {
+        getSymlinks(path, new SymlinkWalker.Callback() {
             @Override
-            public void commandOutput(int id, String line) {
-                if (id == Constants.GET_SYMLINKS) {
-                    RootTools.log(line);
-
-                    String[] fields = line.split(" ");
-                    InternalVariables.symlinks.add(new Symlink(new File(fields[fields.length - 3]), // file
-                            new File(fields[fields.length - 1]) // SymlinkPath
-                    ));
-
-                }
-
-                super.commandOutput(id, line);
+            public void onSymlink(Symlink symlink) {
+                symlinks.add(symlink);
             }
-        };
-        Shell.startRootShell().add(command);
-        commandWait(Shell.startRootShell(), command);
+        });
 
-        if (InternalVariables.symlinks != null) {
-            return InternalVariables.symlinks;
-        } else {
-            throw new Exception();
-        }
+        return symlinks;
+    }
+
+    /**
+     * This will hand every Symlink in the given path to the callback as soon as it is found.
+     *
+     * @param path     path to search for Symlinks.
+     * @param callback receives the Symlinks, one at a time.
+     * @throws Exception if we cannot search the path.
+     */
+    public void getSymlinks(String path, SymlinkWalker.Callback callback) throws Exception {
+        new SymlinkWalker(callback).walk(path);
     }
 
     /**
@@ -1058,7 +1030,7 @@ public final class RootToolsInternalMethods {
      */
     public boolean hasUtil(final String util, final String box) {
 
-        InternalVariables.found = false;
+        final AtomicBoolean found = new AtomicBoolean(false);
 
         // only for busybox and toolbox
         if (!(box.endsWith("toolbox") || box.endsWith("busybox"))) {
@@ -1073,13 +1045,13 @@ public final class RootToolsInternalMethods {
                 public void commandOutput(int id, String line) {
                     if (box.endsWith("toolbox")) {
                         if (!line.contains("no such tool")) {
-                            InternalVariables.found = true;
+                            found.set(true);
                         }
                     } else if (box.endsWith("busybox")) {
                         // go through all lines of busybox --list
                         if (line.contains(util)) {
                             RootTools.log("Found util!");
-                            InternalVariables.found = true;
+                            found.set(true);
                         }
                     }
 
@@ -1089,7 +1061,7 @@ public final class RootToolsInternalMethods {
             RootTools.getShell(true).add(command);
             commandWait(RootTools.getShell(true), command);
 
-            if (InternalVariables.found) {
+            if (found.get()) {
                 RootTools.log("Box contains " + util + " util!");
                 return true;
             } else {
@@ -1184,27 +1156,7 @@ public final class RootToolsInternalMethods {
 
         RootTools.log("Checks if process is running: " + processName);
 
-        InternalVariables.processRunning = false;
-
-        try {
-            Command command = new Command(0, false, "ps | grep " + processName) {
-                @Override
-                public void commandOutput(int id, String line) {
-                    if (line.contains(processName)) {
-                        InternalVariables.processRunning = true;
-                    }
-
-                    super.commandOutput(id, line);
-                }
-            };
-            RootTools.getShell(true).add(command);
-            commandWait(RootTools.getShell(true), command);
-
-        } catch (Exception e) {
-            RootTools.log(e.getMessage());
-        }
-
-        return InternalVariables.processRunning;
+        return ProcessScanner.getInstance().scan().isRunning(processName);
     }
 
     /**
@@ -1216,63 +1168,30 @@ public final class RootToolsInternalMethods {
     public boolean killProcess(final String processName) {
         RootTools.log("Killing process " + processName);
 
-        InternalVariables.pid_list = "";
-
-        //Assume that the process is running
-        InternalVariables.processRunning = true;
-
-        try {
-
-            Command command = new Command(0, false, "ps") {
-                @Override
-                public void commandOutput(int id, String line) {
-                    if (line.contains(processName)) {
-                        Matcher psMatcher = InternalVariables.psPattern.matcher(line);
-
-                        try {
-                            if (psMatcher.find()) {
-                                String pid = psMatcher.group(1);
+        List<Integer> pids = ProcessScanner.getInstance().scan().findPids(processName);
 
-                                InternalVariables.pid_list += " " + pid;
-                                InternalVariables.pid_list = InternalVariables.pid_list.trim();
+        // kill processes
+        if (!pids.isEmpty()) {
+            StringBuilder command = new StringBuilder("kill -9");
 
-                                RootTools.log("Found pid: " + pid);
-                            } else {
-                                RootTools.log("Matching in ps command failed!");
-                            }
-                        } catch (Exception e) {
-                            RootTools.log("Error with regex!");
-                            e.printStackTrace();
-                        }
-                    }
-
-                    super.commandOutput(id, line);
-                }
-            };
-            RootTools.getShell(true).add(command);
-            commandWait(RootTools.getShell(true), command);
-
-            // get all pids in one string, created in process method
-            String pids = InternalVariables.pid_list;
+            for (Integer pid : pids) {
+                RootTools.log("Found pid: " + pid);
+                command.append(' ').append(pid);
+            }
 
-            // kill processes
-            if (!pids.equals("")) {
-                try {
-                    // example: kill -9 1234 1222 5343
-                    command = new Command(0, false, "kill -9 " + pids);
-                    RootTools.getShell(true).add(command);
-                    commandWait(RootTools.getShell(true), command);
+            try {
+                // example: kill -9 1234 1222 5343
+                Command kill = new Command(0, false, command.toString());
+                RootTools.getShell(true).add(kill);
+                commandWait(RootTools.getShell(true), kill);
 
-                    return true;
-                } catch (Exception e) {
-                    RootTools.log(e.getMessage());
-                }
-            } else {
-                //no pids match, must be dead
                 return true;
+            } catch (Exception e) {
+                RootTools.log(e.getMessage());
             }
-        } catch (Exception e) {
-            RootTools.log(e.getMessage());
+        } else {
+            //no pids match, must be dead
+            return true;
         }
 
         return false;
@@ -1335,41 +1254,15 @@ public final class RootToolsInternalMethods {
     }
 
     private void commandWait(Shell shell, Command cmd) throws Exception {
-
-        while (!cmd.isFinished()) {
-
+        if (RootTools.debugMode) {
             RootTools.log(Constants.TAG, shell.getCommandQueuePositionString(cmd));
-            RootTools.log(Constants.TAG, "Processed " + cmd.totalOutputProcessed + " of " + cmd.totalOutput + " output from command.");
-
-            synchronized (cmd) {
-                try {
-                    if (!cmd.isFinished()) {
-                        cmd.wait(2000);
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            if (!cmd.isExecuting() && !cmd.isFinished()) {
-                if (!shell.isExecuting && !shell.isReading) {
-                    Log.e(Constants.TAG, "Waiting for a command to be executed in a shell that is not executing and not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                } else if (shell.isExecuting && !shell.isReading) {
-                    Log.e(Constants.TAG, "Waiting for a command to be executed in a shell that is executing but not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                } else {
-                    Log.e(Constants.TAG, "Waiting for a command to be executed in a shell that is not reading! \n\n Command: " + cmd.getCommand());
-                    Exception e = new Exception();
-                    e.setStackTrace(Thread.currentThread().getStackTrace());
-                    e.printStackTrace();
-                }
-            }
+        }
 
+        try {
+            cmd.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
         }
     }
 }
@@ -79,19 +79,13 @@ public class Runner extends Thread
 
     private void commandWait(Command cmd)
     {
-        synchronized (cmd)
+        try
         {
-            try
-            {
-                if (!cmd.isFinished())
-                {
-                    cmd.wait(2000);
-                }
-            }
-            catch (InterruptedException e)
-            {
-                e.printStackTrace();
-            }
+            cmd.waitForFinish(2000);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -0,0 +1,306 @@
+/*
+ * This file is part of the RootTools Project: http://code.google.com/p/RootTools/
+ *
+ * Copyright (c) 2012 Stephen Erickson, Chris Ravenscroft, Dominik Schuermann, Adam Shanks
+ *
+ * This code is dual-licensed under the terms of the Apache License Version 2.0 and
+ * the terms of the General Public License (GPL) Version 2.
+ * You may use this code according to either of these licenses as is most appropriate
+ * for your project on a case-by-case basis.
+ *
+ * The terms of each license can be found in the root directory of this project's repository as well as at:
+ *
+ * * http://www.apache.org/licenses/LICENSE-2.0
+ * * http://www.gnu.org/licenses/gpl-2.0.txt
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under these Licenses is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See each License for the specific language governing permissions and
+ * limitations under that License.
+ */
+
+package com.stericson.RootTools.internal;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.LineSink;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.Constants;
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.containers.Symlink;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Finds the symlinks below a directory and hands them to a {@link Callback} as they are found,
+ * instead of collecting them all first.
+ * <p/>
+ * Directories the app can read are walked in Java, with the subdirectories spread over a few
+ * threads. Whatever cannot be read is left to a single <code>find</code> in a root shell, which
+ * prints the link targets itself where it can instead of starting an <code>ls</code> for every
+ * link.
+ */
+public final class SymlinkWalker {
+
+    private static final String LINK_MARKER = "SymlinkWalker:";
+
+    private static final String ARROW = " -> ";
+
+    public interface Callback {
+        /**
+         * Called for every symlink that was found, one call at a time but not necessarily on the
+         * thread that started the walk.
+         */
+        void onSymlink(Symlink symlink);
+    }
+
+    private final int threads;
+
+    private final Callback callback;
+
+    private final List<String> unreadable = new ArrayList<String>();
+
+    private ExecutorService executor;
+
+    //directories that were queued but not listed yet
+    private int pending = 0;
+
+    private Throwable failure = null;
+
+    /**
+     * @param threads  how many directories are listed at the same time.
+     * @param callback receives the symlinks.
+     */
+    public SymlinkWalker(int threads, Callback callback) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("A walk needs at least one thread: " + threads);
+        }
+
+        this.threads = threads;
+        this.callback = callback;
+    }
+
+    public SymlinkWalker(Callback callback) {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()), callback);
+    }
+
+    /**
+     * Walks path and reports every symlink below it. Symlinks to directories are reported but
+     * not followed.
+     *
+     * @param path the directory to search.
+     * @throws Exception if the walk failed or the callback threw.
+     */
+    public void walk(String path) throws Exception {
+        synchronized (this) {
+            unreadable.clear();
+            failure = null;
+        }
+
+        File root = new File(path);
+
+        if (root.isDirectory() && root.list() != null) {
+            walkDirect(root);
+        } else {
+            synchronized (this) {
+                unreadable.add(path);
+            }
+        }
+
+        List<String> rest;
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure instanceof Exception ? (Exception) failure : new Exception(failure);
+            }
+
+            rest = new ArrayList<String>(unreadable);
+        }
+
+        if (!rest.isEmpty()) {
+            walkWithShell(rest);
+        }
+    }
+
+    private void walkDirect(File root) throws InterruptedException {
+        executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            queue(root);
+
+            synchronized (this) {
+                while (pending > 0 && failure == null) {
+                    wait();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized void queue(final File dir) {
+        pending++;
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        list(dir);
+                    } catch (Throwable e) {
+                        synchronized (SymlinkWalker.this) {
+                            if (failure == null) {
+                                failure = e;
+                            }
+                        }
+                    } finally {
+                        synchronized (SymlinkWalker.this) {
+                            pending--;
+                            SymlinkWalker.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //the walk was stopped
+            pending--;
+        }
+    }
+
+    private void list(File dir) throws IOException {
+        String[] names = dir.list();
+
+        if (names == null) {
+            synchronized (this) {
+                unreadable.add(dir.getPath());
+            }
+            return;
+        }
+
+        String canonicalDir = dir.getCanonicalPath();
+
+        for (String name : names) {
+            File file = new File(dir, name);
+            String target = readLink(file, canonicalDir, name);
+
+            if (target != null) {
+                report(new Symlink(file, new File(target)));
+            } else if (file.isDirectory()) {
+                queue(file);
+            }
+        }
+    }
+
+    /**
+     * @return the target of file if it is a symlink, otherwise null.
+     */
+    private static String readLink(File file, String canonicalDir, String name) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return readLinkOs(file);
+        }
+
+        //without lstat a symlink is a file that resolves to somewhere other than where it is
+        String canonical = new File(canonicalDir, name).getCanonicalPath();
+        String direct = canonicalDir.equals("/") ? "/" + name : canonicalDir + "/" + name;
+
+        return canonical.equals(direct) ? null : canonical;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static String readLinkOs(File file) {
+        try {
+            if (!OsConstants.S_ISLNK(Os.lstat(file.getPath()).st_mode)) {
+                return null;
+            }
+
+            return Os.readlink(file.getPath());
+        } catch (Exception e) {
+            //gone since it was listed, or not ours to look at
+            return null;
+        }
+    }
+
+    private void report(Symlink symlink) {
+        synchronized (callback) {
+            callback.onSymlink(symlink);
+        }
+    }
+
+    private void walkWithShell(List<String> dirs) throws Exception {
+        // this command needs find
+        if (!RootTools.checkUtil("find")) {
+            throw new Exception("find is needed to search " + dirs + " for symlinks");
+        }
+
+        StringBuilder args = new StringBuilder();
+
+        for (String dir : dirs) {
+            args.append(" '").append(dir.replace("'", "'\\''")).append('\'');
+        }
+
+        Command command = new Command(Constants.GET_SYMLINKS, false,
+                "if find / -maxdepth 0 -printf '' >/dev/null 2>&1; then"
+                        + " find" + args + " -type l -printf '" + LINK_MARKER + "%p" + ARROW + "%l\\n' 2>/dev/null;"
+                        + " else find" + args + " -type l -exec ls -ld {} + 2>/dev/null; fi");
+        command.setOutputSink(new LineSink() {
+            @Override
+            public void onLine(String line) {
+                Symlink symlink = parseLine(line);
+
+                if (symlink != null) {
+                    report(symlink);
+                }
+            }
+        });
+
+        command.setRunInShell(false);
+
+        Shell shell = RootTools.getShell(true);
+        shell.add(command);
+
+        try {
+            command.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * A line is either "SymlinkWalker:&lt;path&gt; -&gt; &lt;target&gt;", printed by find, or
+     * a line of <code>ls -ld</code>, where the path is the last column in front of the arrow.
+     */
+    static Symlink parseLine(String line) {
+        int arrow = line.indexOf(ARROW);
+
+        if (arrow == -1) {
+            return null;
+        }
+
+        String file;
+
+        if (line.startsWith(LINK_MARKER)) {
+            file = line.substring(LINK_MARKER.length(), arrow);
+        } else {
+            if (!line.startsWith("l")) {
+                return null;
+            }
+
+            file = line.substring(line.lastIndexOf(' ', arrow - 1) + 1, arrow);
+        }
+
+        return new Symlink(new File(file), new File(line.substring(arrow + ARROW.length())));
+    }
+}
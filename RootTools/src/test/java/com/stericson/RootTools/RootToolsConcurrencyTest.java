@@ -0,0 +1,135 @@
+package com.stericson.RootTools;
+
+import com.stericson.RootShell.RootShell;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs RootTools calls from many threads at once and checks that every call gets its own answer.
+ * They run once against a real root shell, skipped where su does not hand out a root shell without
+ * asking, and once with /bin/sh standing in for su.
+ */
+public class RootToolsConcurrencyTest {
+
+    private static final int THREADS = 8;
+
+    private static final int ROUNDS = 40;
+
+    private final List<File> files = new ArrayList<File>();
+
+    private Process sleeper;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(new File("/bin/sleep").canExecute());
+
+        dir = File.createTempFile("rootTools", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+
+        //a process with a name nothing else on the machine has
+        File sleep = new File(dir, "rtstress");
+        exec("ln", "-s", "/bin/sleep", sleep.getPath());
+        sleeper = new ProcessBuilder(sleep.getPath(), "120").start();
+
+        for (int i = 0; i < THREADS; i++) {
+            File target = new File(dir, "target" + i);
+            assertTrue(target.createNewFile());
+            exec("ln", "-s", target.getPath(), new File(dir, "link" + i).getPath());
+            files.add(target);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (sleeper != null) {
+            sleeper.destroy();
+        }
+
+        if (dir != null) {
+            exec("rm", "-rf", dir.getPath());
+        }
+
+        RootTools.closeAllShells();
+        RootShell.rootShellCommand = "su";
+    }
+
+    @Test
+    public void parallelCallsGetTheirOwnResults() throws Exception {
+        assumeTrue(RootTools.isAccessGiven(5000, 0));
+
+        runParallelCalls();
+    }
+
+    @Test
+    public void parallelCallsGetTheirOwnResultsFromAShShell() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+        RootShell.rootShellCommand = "/bin/sh";
+
+        runParallelCalls();
+    }
+
+    private void runParallelCalls() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int t = 0; t < THREADS; t++) {
+                final int index = t;
+
+                results.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        String link = new File(dir, "link" + index).getPath();
+
+                        switch (index % 4) {
+                            case 0:
+                                assertTrue(RootTools.isProcessRunning("rtstress"));
+                                break;
+                            case 1:
+                                assertFalse(RootTools.isProcessRunning("rtnothere"));
+                                break;
+                            case 2:
+                                assertFalse(RootTools.getMounts().isEmpty());
+                                break;
+                            default:
+                                break;
+                        }
+
+                        //every thread asks about its own link
+                        return RootTools.getSymlink(link);
+                    }
+                }));
+            }
+        }
+
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(120, TimeUnit.SECONDS));
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(files.get(i % THREADS).getPath(), results.get(i).get());
+        }
+    }
+
+    private static void exec(String... command) throws Exception {
+        assertEquals(0, new ProcessBuilder(command).start().waitFor());
+    }
+}
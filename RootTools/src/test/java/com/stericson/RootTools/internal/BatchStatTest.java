@@ -0,0 +1,109 @@
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootTools.RootTools;
+import com.stericson.RootTools.containers.Permissions;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BatchStatTest {
+
+    private final BatchStat stat = new BatchStat(new RootToolsInternalMethods());
+
+    @Test
+    public void parsesStatAndLsOutput() {
+        Set<String> wanted = new HashSet<String>(Arrays.asList(
+                "/system/bin/sh", "/system/bin/app process", "/system/xbin/su", "/system/bin/ls"));
+        Map<String, Permissions> found = new LinkedHashMap<String, Permissions>();
+
+        //GNU stat quotes names, toybox does not
+        stat.parseLine("lrwxrwxrwx '/system/bin/sh' -> 'mksh'", wanted, found);
+        stat.parseLine("-rwxr-xr-x /system/bin/app process", wanted, found);
+        stat.parseLine("-rwsr-sr-x. 1 0 2000 75364 2008-12-31 19:00 /system/xbin/su", wanted, found);
+        stat.parseLine("lrwxr-xr-x 1 0 2000 6 2008-12-31 19:00 /system/bin/ls -> toybox", wanted, found);
+        stat.parseLine("stat: cannot stat '/system/bin/gone': No such file or directory", wanted, found);
+        stat.parseLine("-rw-r--r-- /system/etc/hosts", wanted, found);
+
+        assertEquals(4, found.size());
+
+        assertEquals("l", found.get("/system/bin/sh").getType());
+        assertEquals("mksh", found.get("/system/bin/sh").getSymlink());
+
+        assertEquals(755, found.get("/system/bin/app process").getPermissions());
+        assertEquals("", found.get("/system/bin/app process").getSymlink());
+
+        assertEquals("rws", found.get("/system/xbin/su").getUserPermissions());
+        assertEquals("r-s", found.get("/system/xbin/su").getGroupPermissions());
+
+        assertEquals("toybox", found.get("/system/bin/ls").getSymlink());
+        assertNull(found.get("/system/etc/hosts"));
+    }
+
+    @Test
+    public void splitsLongArgumentLists() {
+        List<String> paths = new ArrayList<String>();
+
+        for (int i = 0; i < 1000; i++) {
+            paths.add("/system/bin/binary_with_a_long_name_" + i);
+        }
+
+        paths.add("/data/it's");
+
+        String[] commands = BatchStat.buildCommands(paths);
+
+        assertTrue(commands.length > 1);
+        int count = 0;
+
+        for (String command : commands) {
+            assertTrue(command.length() < 2 * 8192 + 100);
+            count += command.split("binary_with_a_long_name_").length - 1;
+        }
+
+        assertEquals(1000 * 2, count);
+        assertTrue(commands[commands.length - 1].contains("'/data/it'\\''s'"));
+        assertEquals(0, BatchStat.buildCommands(new ArrayList<String>()).length);
+    }
+
+    @Test
+    public void statsFilesWithOneCommand() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute());
+        assumeTrue(RootTools.isAccessGiven(5000, 0));
+
+        try {
+            List<String> paths = new ArrayList<String>();
+            File[] bin = new File("/bin").listFiles();
+            assumeTrue(bin != null);
+
+            for (File file : bin) {
+                paths.add(file.getPath());
+            }
+
+            paths.add("/bin/does-not-exist");
+
+            Map<String, Permissions> found = RootTools.statAll(paths);
+
+            assertFalse(found.containsKey("/bin/does-not-exist"));
+            assertEquals(paths.size() - 1, found.size());
+            assertEquals(paths.get(0), found.keySet().iterator().next());
+
+            Permissions sh = found.get("/bin/sh");
+            assertTrue(sh.getUserPermissions().charAt(2) == 'x' || sh.getType().equals("l"));
+        } finally {
+            RootTools.closeAllShells();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.stericson.RootTools.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InstallerTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("binary", "");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void hashesWhileCopying() throws Exception {
+        byte[] data = new byte[100000];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        //like a compressed resource, it knows nothing about what is left and hands out little at a time
+        InputStream in = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int available() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws java.io.IOException {
+                return super.read(b, off, Math.min(len, 777));
+            }
+        };
+
+        String digest = Installer.copy(in, file);
+
+        assertEquals(data.length, file.length());
+        assertEquals(Installer.getFileSignature(file), digest);
+        assertEquals(64, digest.length());
+    }
+
+    @Test
+    public void trustsTheIndexUntilSomethingChanges() throws Exception {
+        String digest = Installer.copy(new ByteArrayInputStream("v1".getBytes("UTF-8")), file);
+        Properties index = new Properties();
+        index.setProperty("tool", Installer.record("7:100:5", file, digest));
+
+        assertTrue(Installer.isCurrent(index, "tool", "7:100:5", file));
+        assertFalse(Installer.isCurrent(index, "tool", "7:100:6", file));
+        assertFalse(Installer.isCurrent(index, "other", "7:100:5", file));
+
+        //touched but the same content, found out with one read
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertTrue(Installer.isCurrent(index, "tool", "7:100:5", file));
+        assertEquals(Installer.record("7:100:5", file, digest), index.getProperty("tool"));
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("v2".getBytes("UTF-8"));
+        out.close();
+        assertTrue(file.setLastModified(file.lastModified() - 20000));
+        assertFalse(Installer.isCurrent(index, "tool", "7:100:5", file));
+
+        assertTrue(file.delete());
+        assertFalse(Installer.isCurrent(index, "tool", "7:100:5", file));
+    }
+}
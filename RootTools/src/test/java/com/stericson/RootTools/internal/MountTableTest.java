@@ -0,0 +1,94 @@
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootTools.containers.Mount;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class MountTableTest {
+
+    private static final String MOUNTINFO =
+            "1 0 253:0 / / ro,relatime - ext4 /dev/block/dm-0 ro,seclabel\n" +
+            "20 1 0:5 / /dev rw,nosuid,relatime - tmpfs tmpfs rw,seclabel,mode=755\n" +
+            "30 1 253:1 / /system ro,relatime shared:4 master:1 - ext4 /dev/block/dm-1 ro,seclabel\n" +
+            "31 30 0:20 / /system/vendor\\040overlay rw,relatime - overlay overlay rw\n" +
+            "40 1 259:3 / /data rw,nosuid,nodev,noatime - f2fs /dev/block/by-name/userdata rw,lazytime\n" +
+            "41 1 259:4 / /data rw,nosuid,nodev,noatime - f2fs /dev/block/by-name/userdata2 rw\n";
+
+    @Test
+    public void parsesMountInfo() {
+        List<Mount> mounts = MountTable.parseMountInfo(MOUNTINFO);
+
+        assertEquals(6, mounts.size());
+
+        Mount system = mounts.get(2);
+        assertEquals(new File("/system"), system.getMountPoint());
+        assertEquals(new File("/dev/block/dm-1"), system.getDevice());
+        assertEquals("ext4", system.getType());
+        assertEquals("ro", system.getFlags().iterator().next());
+        assertTrue(system.getFlags().contains("seclabel"));
+
+        assertEquals(new File("/system/vendor overlay"), mounts.get(3).getMountPoint());
+    }
+
+    @Test
+    public void findsLongestMountPoint() throws Exception {
+        MountTable table = new FixedMountTable(MOUNTINFO);
+
+        assertEquals(new File("/"), table.findMount("/").getMountPoint());
+        assertEquals(new File("/"), table.findMount("/sys").getMountPoint());
+        assertEquals(new File("/system"), table.findMount("/system").getMountPoint());
+        assertEquals(new File("/system"), table.findMount("/system/bin/sh").getMountPoint());
+        assertEquals(new File("/system"), table.findMount("/system/vendor").getMountPoint());
+        assertEquals(new File("/system/vendor overlay"), table.findMount("/system/vendor overlay/lib").getMountPoint());
+
+        //the mount stacked last on /data is the visible one
+        assertEquals(new File("/dev/block/by-name/userdata2"), table.findMount("/data/local/tmp").getDevice());
+    }
+
+    @Test
+    public void parsesProcMountsLines() {
+        Mount mount = MountTable.parseMountsLine("/dev/block/dm-1 /system ext4 ro,seclabel,relatime 0 0");
+
+        assertNotNull(mount);
+        assertEquals(new File("/system"), mount.getMountPoint());
+        assertEquals("ro", mount.getFlags().iterator().next());
+        assertEquals(null, MountTable.parseMountsLine("garbage"));
+    }
+
+    @Test
+    public void readsThisMachinesMountInfo() throws Exception {
+        File mountInfo = new File("/proc/self/mountinfo");
+        assumeTrue(mountInfo.canRead());
+
+        List<Mount> mounts = MountTable.parseMountInfo(MountTable.read(mountInfo));
+
+        assertFalse(mounts.isEmpty());
+        assertNotNull(MountTable.getInstance().findMount("/"));
+    }
+
+    /**
+     * Serves the table from a string instead of /proc.
+     */
+    private static class FixedMountTable extends MountTable {
+
+        private final List<Mount> mounts;
+
+        FixedMountTable(String mountInfo) {
+            this.mounts = MountTable.parseMountInfo(mountInfo);
+        }
+
+        @Override
+        List<Mount> load() {
+            return mounts;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.stericson.RootTools.internal;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.FileInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ProcessScannerTest {
+
+    @Test
+    public void parsesStatAndCmdline() throws Exception {
+        byte[] stat = "123 (my (odd) name) S 1 123 123 0 -1".getBytes("UTF-8");
+        assertEquals("my (odd) name", ProcessScanner.parseComm(stat, stat.length));
+
+        byte[] cmdline = "/system/bin/bootctl\0get-current-slot\0".getBytes("UTF-8");
+        assertEquals("/system/bin/bootctl", ProcessScanner.parseArgv0(cmdline, cmdline.length));
+        assertEquals("", ProcessScanner.parseArgv0(new byte[0], 0));
+    }
+
+    @Test
+    public void indexesShellDump() {
+        ProcessScanner.ShellDump dump = new ProcessScanner.ShellDump();
+        dump.parse("1 (init) S 0 0 0");
+        dump.parse("642 (surfaceflinger) S 1 642 0");
+        dump.parse("900 (d.process.acore) S 1 900 0");
+        dump.parse("cmdline: 1 642 900 12345");
+        dump.parse("SEP");
+        dump.parse("/system/bin/init\0second_stage\0SEP");
+        dump.parse("SEP");  // nothing in cmdline
+        dump.parse("/system/bin/sh\0-c\0echo");  // a line break in the arguments
+        dump.parse("done\0SEP");
+        dump.parse("SEP");  // ended before cat got to it
+
+        ProcessScanner.Snapshot snapshot = new ProcessScanner.Snapshot(dump.processes);
+
+        assertEquals(3, snapshot.size());
+        assertEquals(1, (int) snapshot.getPids("init").get(0));
+        assertEquals(1, (int) snapshot.getPids("/system/bin/init").get(0));
+        assertEquals(900, (int) snapshot.getPids("sh").get(0));
+        assertEquals("/system/bin/sh", snapshot.getCommand(900));
+        assertEquals(642, (int) snapshot.findPids("flinger").get(0));
+        assertTrue(snapshot.isRunning("acore"));
+        assertFalse(snapshot.isRunning("zygote"));
+        assertEquals("", snapshot.getCommand(642));
+    }
+
+    @Test
+    public void findsOwnChildInProc() throws Exception {
+        assumeTrue(new File("/proc/1/stat").canRead() && new File("/bin/sleep").canExecute());
+
+        File dir = File.createTempFile("scan", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        File sleep = new File(dir, "rtscan");
+        assertEquals(0, new ProcessBuilder("ln", "-s", "/bin/sleep", sleep.getPath()).start().waitFor());
+
+        Process child = new ProcessBuilder("/bin/sh", "-c", "echo $$; exec " + sleep.getPath() + " 60").start();
+
+        try {
+            int pid = Integer.parseInt(new BufferedReader(new InputStreamReader(child.getInputStream())).readLine());
+
+            ProcessScanner scanner = new ProcessScanner(new File("/proc"));
+            ProcessScanner.Snapshot snapshot = scanner.scan();
+
+            //the shell may not have reached the exec yet
+            for (int i = 0; i < 50 && !snapshot.getPids("rtscan").contains(pid); i++) {
+                Thread.sleep(20);
+                snapshot = scanner.scan();
+            }
+
+            assertTrue(snapshot.getPids("rtscan").contains(pid));
+            assertEquals(sleep.getPath(), snapshot.getCommand(pid));
+            assertTrue(snapshot.getAllPids().contains(1));
+        } finally {
+            child.destroy();
+            sleep.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void shellDumpMatchesProc() throws Exception {
+        assumeTrue(new File("/proc/self/cmdline").canRead() && new File("/bin/sh").canExecute());
+
+        StringBuilder script = new StringBuilder();
+        for (String line : ProcessScanner.SHELL_DUMP) {
+            script.append(line).append('\n');
+        }
+
+        Process sh = new ProcessBuilder("/bin/sh", "-c", script.toString()).start();
+        BufferedReader out = new BufferedReader(new InputStreamReader(sh.getInputStream(), "UTF-8"));
+        ProcessScanner.ShellDump dump = new ProcessScanner.ShellDump();
+
+        String line;
+        while ((line = out.readLine()) != null) {
+            dump.parse(line);
+        }
+        assertEquals(0, sh.waitFor());
+
+        int self = Integer.parseInt(new File("/proc/self").getCanonicalFile().getName());
+        byte[] cmdline = new byte[4096];
+        FileInputStream in = new FileInputStream("/proc/self/cmdline");
+        int length = in.read(cmdline);
+        in.close();
+
+        ProcessScanner.Snapshot snapshot = new ProcessScanner.Snapshot(dump.processes);
+        assertTrue(snapshot.getAllPids().contains(1));
+        assertEquals(ProcessScanner.parseArgv0(cmdline, length), snapshot.getCommand(self));
+    }
+}
@@ -0,0 +1,97 @@
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootTools.containers.Mount;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RemountPlannerTest {
+
+    private final Mount system = new Mount(new File("/dev/block/dm-0"), new File("/system"), "ext4", "ro,seclabel");
+
+    /**
+     * A device where only the given commands succeed.
+     */
+    private static class FakePlanner extends RemountPlanner {
+
+        final Set<String> tools = new HashSet<String>();
+
+        final Set<String> working = new HashSet<String>();
+
+        final List<String> ran = new ArrayList<String>();
+
+        @Override
+        boolean hasTool(String tool) {
+            return tools.contains(tool);
+        }
+
+        @Override
+        int run(String command) {
+            ran.add(command);
+            return working.contains(command) ? 0 : 1;
+        }
+    }
+
+    @Test
+    public void probesOnceThenRunsOneCommand() {
+        FakePlanner planner = new FakePlanner();
+        planner.tools.addAll(Arrays.asList("toybox", "toolbox"));
+        planner.working.add("toolbox mount -o remount,rw /dev/block/dm-0 /system");
+        planner.working.add("toolbox mount -o remount,ro /dev/block/dm-0 /system");
+
+        assertTrue(planner.remount(system, "rw"));
+        assertEquals(4 + 2, planner.ran.size());
+        assertTrue(planner.ran.get(0).startsWith("toybox mount"));
+        assertEquals("toolbox", planner.getChosenTool());
+        assertEquals(RemountPlanner.DEVICE_AND_MOUNT_POINT, planner.getChosenSyntax());
+
+        planner.ran.clear();
+        assertTrue(planner.remount(system, "ro"));
+        assertEquals(Arrays.asList("toolbox mount -o remount,ro /dev/block/dm-0 /system"), planner.ran);
+    }
+
+    @Test
+    public void looksAgainWhenTheChoiceStopsWorking() {
+        FakePlanner planner = new FakePlanner();
+        planner.tools.addAll(Arrays.asList("mount", "busybox"));
+        planner.working.add("mount -o remount,rw /system");
+
+        assertTrue(planner.remount(system, "rw"));
+        assertEquals(1, planner.ran.size());
+
+        planner.working.clear();
+        planner.working.add("busybox mount -o rw,remount /system");
+        planner.ran.clear();
+
+        assertTrue(planner.remount(system, "rw"));
+        assertEquals("busybox", planner.getChosenTool());
+        //the old choice once, the other three ways of mount, then busybox up to the one that works
+        assertEquals(1 + 3 + 4, planner.ran.size());
+
+        planner.working.clear();
+        assertFalse(planner.remount(system, "rw"));
+        assertEquals("busybox", planner.getChosenTool());
+    }
+
+    @Test
+    public void buildsEveryArgumentOrder() {
+        assertEquals("mount -o remount,rw /system",
+                RemountPlanner.buildCommand("mount", RemountPlanner.MOUNT_POINT, system, "rw"));
+        assertEquals("busybox mount -o remount,rw /dev/block/dm-0 /system",
+                RemountPlanner.buildCommand("busybox", RemountPlanner.DEVICE_AND_MOUNT_POINT, system, "rw"));
+        assertEquals("toybox mount -o ro,remount /dev/block/dm-0",
+                RemountPlanner.buildCommand("toybox", RemountPlanner.MODE_FIRST_DEVICE, system, "ro"));
+        assertEquals("toolbox mount -o ro,remount /system",
+                RemountPlanner.buildCommand("toolbox", RemountPlanner.MODE_FIRST_MOUNT_POINT, system, "ro"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.stericson.RootTools.internal;
+
+import com.stericson.RootTools.containers.Symlink;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SymlinkWalkerTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("walker", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        exec("rm", "-rf", dir.getPath());
+    }
+
+    @Test
+    public void parsesFindAndLsOutput() {
+        Symlink printed = SymlinkWalker.parseLine("SymlinkWalker:/system/bin/my sh -> /system/bin/mksh");
+        assertEquals("/system/bin/my sh", printed.getFile().getPath());
+        assertEquals("/system/bin/mksh", printed.getSymlinkPath().getPath());
+
+        Symlink listed = SymlinkWalker.parseLine("lrwxr-xr-x 1 root shell 6 2008-12-31 19:00 /system/bin/ls -> toybox");
+        assertEquals("/system/bin/ls", listed.getFile().getPath());
+        assertEquals("toybox", listed.getSymlinkPath().getPath());
+
+        assertNull(SymlinkWalker.parseLine("find: /proc/1/fd: Permission denied"));
+        assertNull(SymlinkWalker.parseLine("-rw-r--r-- 1 root root 0 2008-12-31 19:00 /a -> b"));
+    }
+
+    @Test
+    public void walksNestedDirectories() throws Exception {
+        assumeTrue(new File("/bin/ln").canExecute());
+
+        File target = new File(dir, "target");
+        assertTrue(target.createNewFile());
+
+        for (int i = 0; i < 20; i++) {
+            File sub = new File(dir, "sub" + i + "/deeper");
+            assertTrue(sub.mkdirs());
+            assertTrue(new File(sub, "plain").createNewFile());
+            exec("ln", "-s", target.getPath(), new File(sub, "link").getPath());
+        }
+
+        //a link to a directory is reported but not followed
+        exec("ln", "-s", dir.getPath(), new File(dir, "loop").getPath());
+
+        final Map<String, String> found = new HashMap<String, String>();
+
+        new SymlinkWalker(4, new SymlinkWalker.Callback() {
+            @Override
+            public void onSymlink(Symlink symlink) {
+                found.put(symlink.getFile().getPath(), symlink.getSymlinkPath().getPath());
+            }
+        }).walk(dir.getPath());
+
+        assertEquals(21, found.size());
+        assertEquals(target.getCanonicalPath(),
+                new File(found.get(new File(dir, "sub7/deeper/link").getPath())).getCanonicalPath());
+        assertEquals(dir.getCanonicalPath(),
+                new File(found.get(new File(dir, "loop").getPath())).getCanonicalPath());
+    }
+
+    private static void exec(String... command) throws Exception {
+        assertEquals(0, new ProcessBuilder(command).start().waitFor());
+    }
+}
@@ -0,0 +1,98 @@
+/********************************************************************************************
+ org/shou/switchmyslot/BootControl.java: Boot control access for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Queries and switches the boot slots through the boot_control HAL.
+ *
+ * There are two ways to reach the HAL, open() picks the best one available:
+ *  - HelperBootControl: one root helper process that talks to the HAL directly and answers any number of queries
+ *  - BootctlBootControl: a bootctl process in the root shell for every query
+ */
+public abstract class BootControl {
+
+    /**
+     * Opens the best way to reach the boot_control HAL.
+     *
+     * @param apkPath  The path of the app's apk, the helper process runs from it.
+     * @param cacheDir The app's cache directory, the helper is talked to through pipes made in it.
+     * @return The boot control, the helper if it could be started, else bootctl utility.
+     */
+    public static BootControl open(String apkPath, File cacheDir) {
+        try {
+            return HelperBootControl.start(apkPath, cacheDir);
+        } catch (IOException e) {
+            Log.w("Switch My Slot", "Boot control helper unavailable, using bootctl utility: " + e.getMessage());
+            return new BootctlBootControl();
+        }
+    }
+
+
+    /**
+     * @return The version of the HAL, as "HAL Version: android.hardware.boot@1.1::IBootControl".
+     */
+    public abstract String getHalInfo() throws IOException;
+
+    public abstract int getNumberOfSlots() throws IOException;
+
+    public abstract int getCurrentSlot() throws IOException;
+
+    /**
+     * @param slot The slot.
+     * @return The suffix of the slot's partitions, like "_a".
+     */
+    public abstract String getSuffix(int slot) throws IOException;
+
+    /**
+     * Makes the slot the one to boot from on the next reboot.
+     *
+     * @param slot The slot.
+     */
+    public abstract void setActiveBootSlot(int slot) throws IOException;
+
+    /**
+     * Releases whatever the backend keeps open.
+     */
+    public abstract void close();
+
+
+    /**
+     * Gets all the information about the slots.
+     *
+     * @return The information about the slots.
+     */
+    public SlotInfo getSlotInfo() throws IOException {
+        int currentSlot = getCurrentSlot();
+
+        return new SlotInfo(getHalInfo(), Integer.toString(getNumberOfSlots()), currentSlot, getSuffix(currentSlot));
+    }
+}
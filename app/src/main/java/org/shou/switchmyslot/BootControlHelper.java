@@ -0,0 +1,149 @@
+/********************************************************************************************
+ org/shou/switchmyslot/BootControlHelper.java: Root boot control helper for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * The helper process behind HelperBootControl. It is started as root with app_process from the apk,
+ * so it is not an app and has no context, only the boot_control HAL through HidlBootControl.
+ *
+ * It talks over stdin/stdout, one line per request and one line per answer:
+ *  - first it writes "ready", or "error <reason>" and exits if the HAL cannot be reached
+ *  - the requests are the ones of bootctl utility: hal-info, get-number-slots, get-current-slot,
+ *    get-suffix SLOT and set-active-boot-slot SLOT, and quit to stop the helper
+ *  - every answer is "ok <value>" or "error <reason>"
+ */
+public final class BootControlHelper {
+
+    static final String READY = "ready";
+    static final String OK = "ok ";
+    static final String ERROR = "error ";
+    static final String QUIT = "quit";
+
+    private BootControlHelper() {
+    }
+
+
+    public static void main(String[] args) {
+        Writer out = new OutputStreamWriter(System.out);
+
+        try {
+            BootControl bootControl;
+
+            try {
+                bootControl = new HidlBootControl();
+            } catch (IOException e) {
+                out.write(ERROR + oneLine(e.getMessage()) + "\n");
+                out.flush();
+                System.exit(1);
+                return;
+            }
+
+            serve(new BufferedReader(new InputStreamReader(System.in)), out, bootControl);
+        } catch (IOException e) {
+            // the app is gone, nobody left to answer
+        }
+
+        System.exit(0);
+    }
+
+
+    /**
+     * Answers the requests until quit or the end of the input.
+     *
+     * @param in          The requests.
+     * @param out         The answers.
+     * @param bootControl Answers the queries.
+     */
+    static void serve(BufferedReader in, Writer out, BootControl bootControl) throws IOException {
+        out.write(READY + "\n");
+        out.flush();
+
+        String request;
+
+        while ((request = in.readLine()) != null) {
+            request = request.trim();
+
+            if (request.equals(QUIT)) {
+                break;
+            }
+
+            String answer;
+
+            try {
+                answer = OK + oneLine(answer(bootControl, request));
+            } catch (Exception e) {
+                answer = ERROR + oneLine(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+
+            out.write(answer + "\n");
+            out.flush();
+        }
+
+        bootControl.close();
+    }
+
+
+    private static String answer(BootControl bootControl, String request) throws IOException {
+        String[] words = request.split(" +");
+
+        switch (words[0]) {
+            case "hal-info":
+                return bootControl.getHalInfo();
+            case "get-number-slots":
+                return Integer.toString(bootControl.getNumberOfSlots());
+            case "get-current-slot":
+                return Integer.toString(bootControl.getCurrentSlot());
+            case "get-suffix":
+                return bootControl.getSuffix(slot(words));
+            case "set-active-boot-slot":
+                bootControl.setActiveBootSlot(slot(words));
+                return "";
+            default:
+                throw new IOException("Unknown request: " + request);
+        }
+    }
+
+
+    private static int slot(String[] words) throws IOException {
+        try {
+            return Integer.parseInt(words[1]);
+        } catch (RuntimeException e) {
+            throw new IOException("Missing or invalid slot: " + words[0]);
+        }
+    }
+
+
+    private static String oneLine(String s) {
+        return s == null ? "" : s.replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,145 @@
+/********************************************************************************************
+ org/shou/switchmyslot/BootctlBootControl.java: Boot control through bootctl for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.RootTools;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reaches the boot_control HAL by running bootctl utility in the root shell, one process for every query.
+ */
+public class BootctlBootControl extends BootControl {
+
+    @Override
+    public String getHalInfo() throws IOException {
+        return run(Constants.BOOTCTL_COMMAND_ID, "bootctl hal-info");
+    }
+
+    @Override
+    public int getNumberOfSlots() throws IOException {
+        return parseInt(run(Constants.BOOTCTL_COMMAND_ID, "bootctl get-number-slots"));
+    }
+
+    @Override
+    public int getCurrentSlot() throws IOException {
+        return parseInt(run(Constants.BOOTCTL_COMMAND_ID, "bootctl get-current-slot"));
+    }
+
+    @Override
+    public String getSuffix(int slot) throws IOException {
+        return run(Constants.BOOTCTL_COMMAND_ID, "bootctl get-suffix " + slot);
+    }
+
+    @Override
+    public void setActiveBootSlot(int slot) throws IOException {
+        run(Constants.SET_ACTIVE_SLOT_COMMAND_ID, "bootctl set-active-boot-slot " + slot);
+    }
+
+    @Override
+    public void close() {
+        // the root shell is shared, nothing of our own to close
+    }
+
+
+    /**
+     * Gets all the information about the slots with a single command instead of one for every query.
+     */
+    @Override
+    public SlotInfo getSlotInfo() throws IOException {
+        SlotInfo info = SlotInfo.parse(runLines(Constants.SLOT_INFO_COMMAND_ID, SlotInfo.BOOTCTL_QUERY));
+
+        if (info == null) {
+            throw new IOException("bootctl did not report the current slot");
+        }
+
+        return info;
+    }
+
+
+    private String run(int id, String command) throws IOException {
+        List<String> lines = runLines(id, command);
+        return lines.isEmpty() ? "" : lines.get(0).trim();
+    }
+
+
+    /**
+     * Runs the command in the root shell and waits for it.
+     *
+     * @return The output lines.
+     * @throws IOException If the command could not be run or failed.
+     */
+    private List<String> runLines(int id, final String command) throws IOException {
+        final List<String> lines = new ArrayList<>();
+
+        Command cmd = new Command(id, false, command) {
+            @Override
+            public void commandOutput(int id, String line) {
+                synchronized (lines) {
+                    lines.add(line);
+                }
+                super.commandOutput(id, line);  // MUST be in the end of the method - not in the start
+            }
+        };
+
+        try {
+            Shell shell = RootTools.getShell(true);
+            shell.add(cmd);
+
+            cmd.waitForFinish();
+        } catch (IOException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(command + ": interrupted while waiting for the root shell");
+        } catch (Exception e) {
+            throw new IOException(command + ": " + e, e);
+        }
+
+        synchronized (lines) {
+            if (cmd.getExitCode() != 0) {
+                throw new IOException(command + " failed with exit code " + cmd.getExitCode() + ": " + lines);
+            }
+
+            return new ArrayList<>(lines);
+        }
+    }
+
+
+    private static int parseInt(String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected answer from bootctl: " + value);
+        }
+    }
+}
@@ -28,16 +28,11 @@ package org.shou.switchmyslot;
 
 public final class Constants {
 
-    public static final int HAL_INFO_COMMAND_ID = 0;
-    public static final int NUMBER_OF_SLOTS_COMMAND_ID = 1;
-    public static final int CURRENT_SLOT_COMMAND_ID = 2;
-    public static final int CURRENT_SLOT_SUFFIX_COMMAND_ID = 3;
+    public static final int SLOT_INFO_COMMAND_ID = 0;
+    public static final int BOOTCTL_COMMAND_ID = 1;
     public static final int SET_ACTIVE_SLOT_COMMAND_ID = 4;
     public static final int REBOOT_COMMAND_ID = 5;
-    public static final String STATE_HAL_INFO = "halInfo";
-    public static final String STATE_NUMBER_OF_SLOTS = "numberOfSlots";
-    public static final String STATE_CURRENT_SLOT = "currentSlot";
-    public static final String STATE_CURRENT_SLOT_SUFFIX = "currentSlotSuffix";
+    public static final int BOOT_CONTROL_HELPER_COMMAND_ID = 6;
     public static final String STATE_CONFIRMATION_DIALOG_SHOWN = "confirmationDialogShown";
     public static final String STATE_ERROR_DIALOG_SHOWN = "errorDialogShown";
     public static final String STATE_ERROR_DIALOG_STRING = "errorDialogString";
@@ -0,0 +1,307 @@
+/********************************************************************************************
+ org/shou/switchmyslot/DeviceSupportProbe.java: Device support checks for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.stericson.RootTools.RootTools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks if the device is supported without blocking the main thread. The requirements are:
+ *  - Android version 7.1 or newer
+ *  - A/B partitions (conventional or virtual)
+ *  - SU availability
+ *  - SU granted
+ *  - Availability of bootctl utility
+ *
+ * The independent checks run at the same time on a background executor. The two that need root run
+ * one after the other in a single task: both open the root shell, so running them at the same time
+ * could ask for root twice, and bootctl is only looked for once root is granted. As soon as the
+ * outcome is known the rest is abandoned and a single Result is handed to the listener on the
+ * main thread, so the whole check takes about as long as its slowest part.
+ *
+ * When several checks fail the reason is the one of the first failed requirement in the list
+ * above, the same one the checks would find one after the other.
+ */
+public class DeviceSupportProbe {
+
+    public interface Listener {
+        void onResult(Result result);
+    }
+
+
+    public static class Result {
+
+        private final int unsupportedReason; // string resource, 0 if the device is supported
+
+        Result(int unsupportedReason) {
+            this.unsupportedReason = unsupportedReason;
+        }
+
+        public boolean isSupported() {
+            return unsupportedReason == 0;
+        }
+
+        /**
+         * @return The string resource that explains why the device is unsupported, 0 if it is supported.
+         */
+        public int getUnsupportedReason() {
+            return unsupportedReason;
+        }
+    }
+
+
+    private final List<Callable<Boolean>> checks;
+    private final int[] reasons;
+    private final boolean[] chained;
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+
+    private final Boolean[] passed;
+    private final List<Future<?>> running = new ArrayList<>();
+    private boolean started;
+    private Result result;
+    private Listener listener;
+
+
+    /**
+     * Creates the probe of this device, its result is delivered on the main thread.
+     */
+    public DeviceSupportProbe() {
+        this(createChecks(), new int[]{R.string.error_min_api, R.string.error_ab_device, R.string.error_root_required, R.string.error_root_denied, R.string.error_bootctl_missing},
+                new boolean[]{false, false, false, false, true},
+                Executors.newFixedThreadPool(4), new Executor() {
+                    private final Handler handler = new Handler(Looper.getMainLooper());
+
+                    @Override
+                    public void execute(Runnable command) {
+                        handler.post(command);
+                    }
+                });
+    }
+
+
+    /**
+     * Runs all the checks at the same time.
+     *
+     * @see #DeviceSupportProbe(List, int[], boolean[], ExecutorService, Executor)
+     */
+    DeviceSupportProbe(List<Callable<Boolean>> checks, int[] reasons, ExecutorService executor, Executor callbackExecutor) {
+        this(checks, reasons, new boolean[checks.size()], executor, callbackExecutor);
+    }
+
+
+    /**
+     * @param checks           The checks in the order of the requirements, true if the requirement is met.
+     * @param reasons          The reason for every check to give when it fails.
+     * @param chained          For every check, true if it runs after the check before it, and only if that one passed.
+     * @param executor         Runs the checks.
+     * @param callbackExecutor Calls the listener.
+     */
+    DeviceSupportProbe(List<Callable<Boolean>> checks, int[] reasons, boolean[] chained, ExecutorService executor, Executor callbackExecutor) {
+        this.checks = checks;
+        this.reasons = reasons;
+        this.chained = chained;
+        this.executor = executor;
+        this.callbackExecutor = callbackExecutor;
+        this.passed = new Boolean[checks.size()];
+    }
+
+
+    private static List<Callable<Boolean>> createChecks() {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+
+        checks.add(new Callable<Boolean>() {  // Seamless A/B updates are only from Android Nougat 7.1
+            @Override
+            public Boolean call() {
+                return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1;
+            }
+        });
+        checks.add(new Callable<Boolean>() {  // if the device supports the conventional or virtual A/B partitions
+            @Override
+            public Boolean call() {
+                return ABChecker.check() != null;
+            }
+        });
+        checks.add(new Callable<Boolean>() {  // if su binary is available
+            @Override
+            public Boolean call() {
+                return RootTools.isRootAvailable();
+            }
+        });
+        checks.add(new Callable<Boolean>() {  // if user granted the su request
+            @Override
+            public Boolean call() {
+                return RootTools.isAccessGiven(0, 0);
+            }
+        });
+        checks.add(new Callable<Boolean>() {  // checking bootctl availability
+            @Override
+            public Boolean call() {
+                return RootTools.checkUtilExecutable("bootctl");
+            }
+        });
+
+        return checks;
+    }
+
+
+    /**
+     * Starts the checks, unless they were started already.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        for (int i = 0; i < checks.size() && result == null; i++) {
+            if (chained[i]) {
+                continue;  // runs in the task of the check before it
+            }
+
+            final int first = i;
+
+            running.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int index = first; index < checks.size(); index++) {
+                        boolean ok = runCheck(index);
+                        checked(index, ok);
+
+                        // a failed check decides the result before the ones chained to it
+                        if (!ok || index + 1 >= checks.size() || !chained[index + 1] || getResult() != null) {
+                            break;
+                        }
+                    }
+                }
+            }));
+        }
+    }
+
+
+    private boolean runCheck(int index) {
+        try {
+            return checks.get(index).call();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+
+    /**
+     * Sets who gets the result. If the result is known already the listener gets it right away.
+     *
+     * @param listener The listener, or null to stop listening.
+     */
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+
+        if (result != null && listener != null) {
+            deliver(listener, result);
+        }
+    }
+
+
+    /**
+     * @return The result, or null while the checks are running.
+     */
+    public synchronized Result getResult() {
+        return result;
+    }
+
+
+    /**
+     * Abandons whatever check is still running.
+     */
+    public synchronized void shutdown() {
+        executor.shutdownNow();
+    }
+
+
+    private synchronized void checked(int index, boolean ok) {
+        if (result != null) {
+            return;
+        }
+
+        passed[index] = ok;
+
+        for (int i = 0; i < passed.length; i++) {
+            if (passed[i] == null) {
+                return;  // an earlier requirement is still being checked
+            }
+
+            if (!passed[i]) {
+                finish(new Result(reasons[i]));
+                return;
+            }
+        }
+
+        finish(new Result(0));
+    }
+
+
+    private void finish(Result result) {
+        this.result = result;
+
+        for (Future<?> future : running) {
+            future.cancel(false);
+        }
+        executor.shutdown();
+
+        if (listener != null) {
+            deliver(listener, result);
+        }
+    }
+
+
+    private void deliver(final Listener listener, final Result result) {
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (DeviceSupportProbe.this) {
+                    if (DeviceSupportProbe.this.listener != listener) {
+                        return;  // the listener was replaced in the meantime
+                    }
+                }
+
+                listener.onResult(result);
+            }
+        });
+    }
+}
@@ -0,0 +1,397 @@
+/********************************************************************************************
+ org/shou/switchmyslot/HelperBootControl.java: Boot control through a root helper for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+import com.stericson.RootTools.RootTools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reaches the boot_control HAL through BootControlHelper, a root process that is started once and then
+ * answers every query itself, without starting a process for each of them like bootctl utility.
+ *
+ * The helper is started from the root shell the app already has, so root is asked for only once. It runs
+ * in the background and talks through two named pipes, which leaves the shell free for other commands.
+ *
+ * The answers are read on a thread of their own, so a helper that hangs, e.g. in the HAL, makes the call
+ * fail after a timeout instead of blocking the caller forever.
+ */
+public class HelperBootControl extends BootControl {
+
+    private static final int STARTUP_TIMEOUT = 10000;
+    private static final int CALL_TIMEOUT = 10000;
+
+    private static final String REQUESTS = "boot_control_requests";
+    private static final String ANSWERS = "boot_control_answers";
+
+    private static final String EXITED = new String("exited");  // compared by identity, the helper can not answer with it
+
+    private final InputStream input;
+    private final Writer out;
+    private final Closeable process;
+    private final BlockingQueue<String> answers = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+
+    /**
+     * @param in      The answers of the helper.
+     * @param out     The requests for the helper.
+     * @param process Kills the helper process, or null if there is none to kill on close.
+     */
+    HelperBootControl(InputStream in, OutputStream out, Closeable process) {
+        this.input = in;
+        this.out = new OutputStreamWriter(out);
+        this.process = process;
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+
+        Thread thread = new Thread("Boot control helper") {
+            @Override
+            public void run() {
+                try {
+                    String line;
+
+                    while ((line = reader.readLine()) != null) {
+                        answers.add(line);
+                    }
+                } catch (IOException e) {
+                    // reported as a helper that exited
+                }
+
+                answers.add(EXITED);
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Starts the helper from the apk in the root shell and waits for it to reach the HAL.
+     *
+     * @param apkPath  The path of the app's apk.
+     * @param cacheDir Where the named pipes are made, they are removed again once both sides opened them.
+     * @return The boot control, ready for queries.
+     * @throws IOException If there is no root shell, or the helper cannot reach the HAL.
+     */
+    static HelperBootControl start(String apkPath, File cacheDir) throws IOException {
+        File requests = new File(cacheDir, REQUESTS);
+        File answers = new File(cacheDir, ANSWERS);
+
+        try {
+            for (File pipe : new File[]{requests, answers}) {
+                pipe.delete();  // left over from a helper that was not closed
+                Os.mkfifo(pipe.getPath(), 0600);
+            }
+
+            return start(RootTools.getShell(true), "CLASSPATH=" + quote(apkPath) + " app_process /system/bin "
+                    + BootControlHelper.class.getName(), requests, answers);
+        } catch (ErrnoException e) {
+            throw new IOException("Could not make the pipes for the boot control helper: " + e.getMessage());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("No root shell for the boot control helper: " + e);
+        } finally {
+            requests.delete();
+            answers.delete();
+        }
+    }
+
+
+    /**
+     * Starts the helper in the background of the shell and waits for it to reach the HAL.
+     *
+     * @param shell    The shell to start the helper from, the helper gets its privileges.
+     * @param helper   The command that runs the helper.
+     * @param requests A named pipe for the requests.
+     * @param answers  A named pipe for the answers.
+     * @return The boot control, ready for queries.
+     * @throws IOException If the helper could not be started or cannot reach the HAL.
+     */
+    static HelperBootControl start(final Shell shell, String helper, File requests, File answers) throws IOException {
+        // both ends of both pipes, so the helper can open its ends without waiting for ours
+        RandomAccessFile requestPipe = new RandomAccessFile(requests, "rw");
+        RandomAccessFile answerPipe = new RandomAccessFile(answers, "rw");
+        final int pid;
+        InputStream in;
+        OutputStream out;
+
+        try {
+            pid = launch(shell, "exec 3>" + quote(answers.getPath()) + " 4<" + quote(requests.getPath()) + "; "
+                    + helper + " <&4 >&3 2>/dev/null & echo $!");
+
+            // the helper has its ends open by now, once ours are the only others it sees the end of the requests
+            // when we close them and we see the end of the answers when it exits
+            in = new FileInputStream(answers);
+            out = new FileOutputStream(requests);
+        } finally {
+            requestPipe.close();
+            answerPipe.close();
+        }
+
+        HelperBootControl control = new HelperBootControl(in, out, new Closeable() {
+            @Override
+            public void close() {
+                try {
+                    shell.add(new Command(Constants.BOOT_CONTROL_HELPER_COMMAND_ID, false, "kill -9 " + pid + " 2>/dev/null"));
+                } catch (Exception e) {
+                    // the shell is gone, the helper sees the end of the requests
+                }
+            }
+        });
+        control.awaitReady(STARTUP_TIMEOUT);
+        return control;
+    }
+
+
+    /**
+     * Runs the command as a job of its own, it does not hold up the shell when it times out.
+     *
+     * @return The pid the command printed.
+     */
+    private static int launch(Shell shell, String command) throws IOException {
+        final List<String> lines = new ArrayList<>();
+
+        Command cmd = new Command(Constants.BOOT_CONTROL_HELPER_COMMAND_ID, false, STARTUP_TIMEOUT, command) {
+            @Override
+            public void commandOutput(int id, String line) {
+                synchronized (lines) {
+                    lines.add(line);
+                }
+                super.commandOutput(id, line);  // MUST be in the end of the method - not in the start
+            }
+        };
+        cmd.setRunInShell(false);
+        shell.add(cmd);
+
+        try {
+            cmd.waitForFinish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while starting the boot control helper");
+        }
+
+        synchronized (lines) {
+            if (cmd.getExitCode() != 0 || lines.isEmpty()) {
+                throw new IOException("Could not start the boot control helper, exit code " + cmd.getExitCode() + ": " + lines);
+            }
+
+            return parseInt(lines.get(0).trim());
+        }
+    }
+
+
+    /**
+     * Waits for the helper to report that it can reach the HAL.
+     *
+     * @param timeout The time to wait in milliseconds.
+     * @throws IOException If the helper failed or did not report in time, it is closed then.
+     */
+    void awaitReady(long timeout) throws IOException {
+        String first;
+
+        try {
+            first = next(timeout);
+        } catch (IOException e) {
+            close();
+            throw new IOException("Boot control helper did not start: " + e.getMessage());
+        }
+
+        if (!BootControlHelper.READY.equals(first)) {
+            close();
+            throw new IOException(first);
+        }
+    }
+
+
+    @Override
+    public String getHalInfo() throws IOException {
+        return call("hal-info");
+    }
+
+    @Override
+    public int getNumberOfSlots() throws IOException {
+        return parseInt(call("get-number-slots"));
+    }
+
+    @Override
+    public int getCurrentSlot() throws IOException {
+        return parseInt(call("get-current-slot"));
+    }
+
+    @Override
+    public String getSuffix(int slot) throws IOException {
+        return call("get-suffix " + slot);
+    }
+
+    @Override
+    public void setActiveBootSlot(int slot) throws IOException {
+        call("set-active-boot-slot " + slot);
+    }
+
+    /**
+     * Stops the helper. It does not wait for a call that is running, that call fails instead.
+     */
+    @Override
+    public void close() {
+        synchronized (answers) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        try {
+            write(BootControlHelper.QUIT);
+        } catch (IOException e) {
+            // already gone
+        }
+
+        // first the process, so a helper that hangs can not keep the streams busy
+        if (process != null) {
+            try {
+                process.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        try {
+            input.close();  // not the reader, that one is locked while the reader thread waits in it
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /**
+     * Sends a request to the helper and waits for its answer.
+     *
+     * @param request The request.
+     * @return The value the helper answered with.
+     * @throws IOException If the helper reported an error, is gone or did not answer in time, it is closed then.
+     */
+    private synchronized String call(String request) throws IOException {
+        if (closed) {
+            throw new IOException("Boot control helper is closed");
+        }
+
+        write(request);
+
+        String answer;
+
+        try {
+            answer = next(CALL_TIMEOUT);
+        } catch (IOException e) {
+            close();  // a late answer would be taken for the one of the next request
+            throw new IOException(request + ": " + e.getMessage());
+        }
+
+        if (answer.startsWith(BootControlHelper.OK)) {
+            return answer.substring(BootControlHelper.OK.length());
+        } else if (answer.startsWith(BootControlHelper.ERROR)) {
+            throw new IOException(answer.substring(BootControlHelper.ERROR.length()));
+        }
+
+        throw new IOException("Unexpected answer from boot control helper: " + answer);
+    }
+
+
+    /**
+     * @param timeout The time to wait in milliseconds.
+     * @return The next line the helper wrote.
+     * @throws IOException If the helper exited or did not answer in time.
+     */
+    private String next(long timeout) throws IOException {
+        String answer;
+
+        try {
+            answer = answers.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the boot control helper");
+        }
+
+        if (answer == null) {
+            throw new IOException("Boot control helper did not answer in " + timeout + " ms");
+        } else if (answer == EXITED) {
+            answers.add(EXITED);  // for whoever waits next
+            throw new IOException("Boot control helper exited");
+        }
+
+        return answer;
+    }
+
+
+    private void write(String line) throws IOException {
+        out.write(line + "\n");
+        out.flush();
+    }
+
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+
+    private static int parseInt(String value) throws IOException {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected answer from boot control helper: " + value);
+        }
+    }
+}
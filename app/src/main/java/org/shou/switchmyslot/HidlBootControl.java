@@ -0,0 +1,179 @@
+/********************************************************************************************
+ org/shou/switchmyslot/HidlBootControl.java: Boot control through HIDL for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Talks to the android.hardware.boot@1.x::IBootControl HAL service over hwbinder, like bootctl utility does.
+ * Only root may do that, so it is used inside BootControlHelper and not in the app itself.
+ *
+ * HwBinder and HwParcel are hidden, they are reached through reflection; the transactions are the ones
+ * the generated HIDL proxies make. On devices without the HIDL service, like the ones with the AIDL
+ * boot HAL, the constructor fails and the app falls back to bootctl utility.
+ */
+final class HidlBootControl extends BootControl {
+
+    private static final String PACKAGE = "android.hardware.boot@";
+    private static final String INTERFACE = "::IBootControl";
+    private static final String[] VERSIONS = {"1.2", "1.1", "1.0"};  // newest first, the service registers all it implements
+
+    // The methods of IBootControl 1.0 are always called with its own interface token
+    private static final String DESCRIPTOR = PACKAGE + "1.0" + INTERFACE;
+
+    // Transaction codes, in the order of the methods in IBootControl.hal
+    private static final int GET_NUMBER_SLOTS = 1;
+    private static final int GET_CURRENT_SLOT = 2;
+    private static final int SET_ACTIVE_BOOT_SLOT = 4;
+    private static final int GET_SUFFIX = 8;
+
+    private static final int COMMAND_RESULT_SIZE = 24;  // struct CommandResult { bool success; string errMsg; }
+    private static final int COMMAND_RESULT_ERR_MSG_OFFSET = 8;
+
+    private final Object binder;  // android.os.IHwBinder
+    private final String halInfo;
+    private final Class<?> parcelClass;
+
+
+    HidlBootControl() throws IOException {
+        Object service = null;
+        String version = null;
+
+        try {
+            parcelClass = Class.forName("android.os.HwParcel");
+            Method getService = Class.forName("android.os.HwBinder").getMethod("getService", String.class, String.class);
+
+            for (String v : VERSIONS) {
+                try {
+                    service = getService.invoke(null, PACKAGE + v + INTERFACE, "default");
+                } catch (InvocationTargetException e) {
+                    continue;  // NoSuchElementException, this version is not registered
+                }
+
+                if (service != null) {
+                    version = v;
+                    break;
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("hwbinder is not available: " + e);
+        }
+
+        if (service == null) {
+            throw new IOException("No " + DESCRIPTOR + " service");
+        }
+
+        binder = service;
+        halInfo = "HAL Version: " + PACKAGE + version + INTERFACE;
+    }
+
+
+    @Override
+    public String getHalInfo() {
+        return halInfo;
+    }
+
+    @Override
+    public int getNumberOfSlots() throws IOException {
+        return (Integer) call(transact(GET_NUMBER_SLOTS, null), "readInt32");
+    }
+
+    @Override
+    public int getCurrentSlot() throws IOException {
+        return (Integer) call(transact(GET_CURRENT_SLOT, null), "readInt32");
+    }
+
+    @Override
+    public String getSuffix(int slot) throws IOException {
+        return (String) call(transact(GET_SUFFIX, slot), "readString");
+    }
+
+    @Override
+    public void setActiveBootSlot(int slot) throws IOException {
+        Object reply = transact(SET_ACTIVE_BOOT_SLOT, slot);
+        Object blob = call(reply, "readBuffer", new Class<?>[]{long.class}, (long) COMMAND_RESULT_SIZE);
+
+        if (!(Boolean) call(blob, "getBool", new Class<?>[]{long.class}, 0L)) {
+            throw new IOException("set-active-boot-slot " + slot + " failed: "
+                    + call(blob, "getString", new Class<?>[]{long.class}, (long) COMMAND_RESULT_ERR_MSG_OFFSET));
+        }
+    }
+
+    @Override
+    public void close() {
+        // hwbinder references are dropped with the process
+    }
+
+
+    /**
+     * Makes a call on the HAL service.
+     *
+     * @param code The transaction code of the method.
+     * @param slot The slot argument, or null if the method has none.
+     * @return The reply parcel, positioned at the return value.
+     */
+    private Object transact(int code, Integer slot) throws IOException {
+        try {
+            Object request = parcelClass.newInstance();
+            call(request, "writeInterfaceToken", new Class<?>[]{String.class}, DESCRIPTOR);
+            if (slot != null) {
+                call(request, "writeInt32", new Class<?>[]{int.class}, slot);
+            }
+
+            Object reply = parcelClass.newInstance();
+            Class<?> binderClass = Class.forName("android.os.IHwBinder");
+            binderClass.getMethod("transact", int.class, parcelClass, parcelClass, int.class).invoke(binder, code, request, reply, 0);
+
+            call(reply, "verifySuccess");
+            call(request, "releaseTemporaryStorage");
+
+            return reply;
+        } catch (InvocationTargetException e) {
+            throw new IOException("Transaction " + code + " failed: " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Transaction " + code + " failed: " + e, e);
+        }
+    }
+
+
+    private static Object call(Object target, String method) throws IOException {
+        return call(target, method, new Class<?>[0]);
+    }
+
+
+    private static Object call(Object target, String method, Class<?>[] types, Object... args) throws IOException {
+        try {
+            return target.getClass().getMethod(method, types).invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw new IOException(method + " failed: " + e.getCause(), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(method + " is not available: " + e, e);
+        }
+    }
+}
@@ -35,41 +35,36 @@ import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import com.stericson.RootShell.exceptions.RootDeniedException;
-import com.stericson.RootShell.execution.Command;
-import com.stericson.RootShell.execution.Shell;
-import com.stericson.RootTools.RootTools;
-
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.constraintlayout.widget.Group;
+import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
 
-import java.io.IOException;
-import java.util.concurrent.TimeoutException;
-
 public class MainActivity extends AppCompatActivity {
 
     // UI
     TextView halInfoTV, numberOfSlotsTV, currentSlotTV, currentSlotSuffixTV;
     AlertDialog errorDialog, confirmationDialog;
     Button button;
+    ProgressBar progressBar;
+    Group slotInformationGroup;
 
-    // Shell integration
-    Command halInfoCommand, numberOfSlotsCommand, currentSlotCommand, currentSlotSuffixCommand;
-    boolean informationGathered;
-    Shell shell;
+    // Information about the slots, kept by the ViewModel through re-creations of the activity
+    SlotInfo slotInfo;
+    String convertedSlotAlphabet;
 
-    // Information to preserve during re-creation of activity (except from convertedSlotAlphabet)
-    String halInfo, numberOfSlots, currentSlotSuffix, convertedSlotAlphabet, errorDialogString;
+    // Information to preserve during re-creation of activity
+    String errorDialogString;
     boolean confirmationDialogShown, errorDialogShown;
-    int currentSlot;
     MainActivityViewModel model;
+    DeviceSupportProbe deviceSupportProbe;
 
 
-    @SuppressLint("SetTextI18n")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -81,8 +76,10 @@ public class MainActivity extends AppCompatActivity {
         currentSlotTV = findViewById(R.id.currentSlotTV);
         currentSlotSuffixTV = findViewById(R.id.CurrentSlotSuffixTV);
         button = findViewById(R.id.button);
+        progressBar = findViewById(R.id.progressBar);
+        slotInformationGroup = findViewById(R.id.slotInformationGroup);
 
-        model = new ViewModelProvider(this).get(MainActivityViewModel.class);  // for preserving the root shell through re-creations of the activity
+        model = new ViewModelProvider(this).get(MainActivityViewModel.class);  // for preserving the root shell and the slot information through re-creations of the activity
 
         // if the activity is being restored (device rotation, multi-window mode, re-opening the app after it got killed in the background by the system)
         if (savedInstanceState != null) {
@@ -94,101 +91,76 @@ public class MainActivity extends AppCompatActivity {
             if (errorDialogShown) {  // if the error dialog was visible before the activity's re-creation then show it again
                 errorDialogString = savedInstanceState.getString(Constants.STATE_ERROR_DIALOG_STRING);
                 displayErrorAndExit(errorDialogString);
-            } else {  // if not then keep restoring information
-                halInfo = savedInstanceState.getString(Constants.STATE_HAL_INFO);
-                numberOfSlots = savedInstanceState.getString(Constants.STATE_NUMBER_OF_SLOTS);
-                currentSlot = savedInstanceState.getInt(Constants.STATE_CURRENT_SLOT);
-                currentSlotSuffix = savedInstanceState.getString(Constants.STATE_CURRENT_SLOT_SUFFIX);
-                confirmationDialogShown = savedInstanceState.getBoolean(Constants.STATE_CONFIRMATION_DIALOG_SHOWN);
-
-                shell = model.getShell();  // getting the shell that was preserved by the ViewModel
-                if (shell == null) {  // if it is a re-creation of the activity after the app got killed in the background by the system. i.e., the shell was terminated
-                    shell = getRootShell();
-                    model.setShell(shell);
-                }
+                return;
+            }
+
+            // if the confirmation dialog was visible before the activity's re-creation then it is shown again once the slot information is there
+            confirmationDialogShown = savedInstanceState.getBoolean(Constants.STATE_CONFIRMATION_DIALOG_SHOWN);
+        }
+
+        checkDeviceSupport();  // the ViewModel answers right away if the device was checked before the re-creation
+    }
+
+
+    /**
+     * Gathers the information about the slots from the boot_control HAL in the background and shows it when it arrives.
+     */
+    public void loadSlotInformation() {
+        model.loadSlotInfo(getApplicationInfo().sourceDir, getCacheDir());
 
-                if (confirmationDialogShown) {  // if the confirmation dialog was visible before the activity's re-creation then show it again by calling the onClick listener of the button that switches the slot
+        model.getSlotInfo().observe(this, new Observer<SlotInfo>() {
+            @Override
+            public void onChanged(SlotInfo info) {
+                slotInfo = info;
+
+                showProgress(false);
+                showSlotInformation();
+
+                if (confirmationDialogShown) {  // showing the confirmation dialog again by calling the onClick listener of the button that switches the slot
                     switchSlot(button);
                 }
             }
-        } else {  // if it is the first creation of the activity
-
-            if (checkDeviceSupport()) {  // if the device is supported
-
-                // Creating commands
-                halInfoCommand = new Command(Constants.HAL_INFO_COMMAND_ID, false, "bootctl hal-info") {
-                    @Override
-                    public void commandOutput(int id, String line) {
-                        halInfo = line;
-                        super.commandOutput(id, line);  // MUST be in the end of the method - not in the start
-                    }
-                };
-
-                numberOfSlotsCommand = new Command(Constants.NUMBER_OF_SLOTS_COMMAND_ID, false, "bootctl get-number-slots") {
-                    @Override
-                    public void commandOutput(int id, String line) {
-                        numberOfSlots = line;
-                        super.commandOutput(id, line);
-                    }
-                };
-
-                currentSlotCommand = new Command(Constants.CURRENT_SLOT_COMMAND_ID, false, "bootctl get-current-slot") {
-                    @Override
-                    public void commandOutput(int id, String line) {
-                        currentSlot = Integer.parseInt(line);
-
-                        // Creating get-suffix command with current slot
-                        currentSlotSuffixCommand = new Command(Constants.CURRENT_SLOT_SUFFIX_COMMAND_ID, false, "bootctl get-suffix " + currentSlot) {
-                            @Override
-                            public void commandOutput(int id, String line) {
-                                currentSlotSuffix = line;
-                                informationGathered = true;  // Releases main thread to assign the information to the views
-                                super.commandOutput(id, line);
-                            }
-                        };
-
-                        super.commandOutput(id, line);
-                    }
-                };
-
-                try {
-                    shell = getRootShell();
-                    model.setShell(shell);
-
-                    // Executing commands
-                    informationGathered = false;
-                    shell.add(halInfoCommand);
-                    shell.add(numberOfSlotsCommand);
-                    shell.add(currentSlotCommand);
-                    while (currentSlotSuffixCommand == null); // waiting for command creation with the current slot
-                    shell.add(currentSlotSuffixCommand);
-                    while (!informationGathered); // waiting for all the information from the commands, i.e., waiting for the last command to handle its output
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    displayErrorAndExit(e.getMessage());
-                }
+        });
+
+        model.getSlotInfoError().observe(this, new Observer<String>() {
+            @Override
+            public void onChanged(String error) {
+                showProgress(false);
+                displayErrorAndExit(getString(R.string.error_slot_info) + "\n" + error);
             }
-        }
+        });
 
-        if (!errorDialogShown) {  // Assigning information to the Views if there isn't an error dialog
-            halInfoTV.setText(halInfo);
-            numberOfSlotsTV.setText(getString(R.string.number_of_slots) + " " + numberOfSlots);
-            currentSlotSuffixTV.setText(getString(R.string.current_slot_suffix) + " " + currentSlotSuffix);
-
-            if (currentSlot == 0) {
-                convertedSlotAlphabet = "A";
-                button.setText(getString(R.string.switch_slot_to) + " B"); //"Switch Slot to B"
-            } else if (currentSlot == 1) {
-                convertedSlotAlphabet = "B";
-                button.setText(getString(R.string.switch_slot_to) + " A"); //"Switch Slot to A"
+        model.getSwitchSlotError().observe(this, new Observer<String>() {
+            @Override
+            public void onChanged(String error) {
+                displayErrorAndExit(getString(R.string.error_switch_slot) + "\n" + error);
             }
-            currentSlotTV.setText(getString(R.string.current_slot) + " " + convertedSlotAlphabet);
+        });
+    }
+
+
+    /**
+     * Assigns the information about the slots to the Views.
+     */
+    @SuppressLint("SetTextI18n")
+    public void showSlotInformation() {
+        halInfoTV.setText(slotInfo.getHalInfo());
+        numberOfSlotsTV.setText(getString(R.string.number_of_slots) + " " + slotInfo.getNumberOfSlots());
+        currentSlotSuffixTV.setText(getString(R.string.current_slot_suffix) + " " + slotInfo.getCurrentSlotSuffix());
+
+        if (slotInfo.getCurrentSlot() == 0) {
+            convertedSlotAlphabet = "A";
+            button.setText(getString(R.string.switch_slot_to) + " B"); //"Switch Slot to B"
+        } else if (slotInfo.getCurrentSlot() == 1) {
+            convertedSlotAlphabet = "B";
+            button.setText(getString(R.string.switch_slot_to) + " A"); //"Switch Slot to A"
         }
+        currentSlotTV.setText(getString(R.string.current_slot) + " " + convertedSlotAlphabet);
     }
 
 
     /**
-     * Saving information like dialogs and bootctl commands' output for activity re-creation
+     * Saving information about dialogs for activity re-creation, the slot information is kept by the ViewModel
      *
      * @param outState The bundle for saving the information
      */
@@ -196,15 +168,11 @@ public class MainActivity extends AppCompatActivity {
     public void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
 
-        // Saving information from bootctl utility (so no need to run the commands once again when the activity is being restored) and dialogs
+        // Saving the dialogs
         outState.putBoolean(Constants.STATE_ERROR_DIALOG_SHOWN, errorDialogShown);  // if the error dialog is visible
         if (errorDialogShown) {
             outState.putString(Constants.STATE_ERROR_DIALOG_STRING, errorDialogString);
         } else {
-            outState.putString(Constants.STATE_HAL_INFO, halInfo);
-            outState.putString(Constants.STATE_NUMBER_OF_SLOTS, numberOfSlots);
-            outState.putInt(Constants.STATE_CURRENT_SLOT, currentSlot);
-            outState.putString(Constants.STATE_CURRENT_SLOT_SUFFIX, currentSlotSuffix);
             outState.putBoolean(Constants.STATE_CONFIRMATION_DIALOG_SHOWN, confirmationDialogShown);  // if the confirmation dialog is visible
         }
     }
@@ -218,6 +186,10 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
 
+        if (deviceSupportProbe != null) {  // the result of the checks goes to the re-created activity
+            deviceSupportProbe.setListener(null);
+        }
+
         // if a dialog is visible, dismissing it without the listener (to show it again if the activity is going to be re-created)
         if (errorDialogShown) {
             errorDialog.setOnDismissListener(null);
@@ -230,66 +202,43 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Returns a root shell with proper exceptions handling
+     * Checks if the device is supported, see DeviceSupportProbe for the requirements.
+     * The checks run in the background while a progress indicator is shown, and are not repeated when the activity is re-created.
      *
-     * @return The root shell
+     * If the device is supported then the information about the slots is loaded, else the app shows an error dialog and exits.
      */
-    public Shell getRootShell() {
-        Shell rootShell = null;
-
-        try {
-            rootShell = RootTools.getShell(true);  // trying to get a new root shell
-        } catch (RootDeniedException e) {
-            e.printStackTrace();
-            displayErrorAndExit(getString(R.string.error_root_denied));
-        } catch (IOException | TimeoutException e) {
-            e.printStackTrace();
-            displayErrorAndExit(e.getMessage());
-        }
+    public void checkDeviceSupport() {
 
-        return rootShell;
+        showProgress(true);
+
+        deviceSupportProbe = model.getDeviceSupportProbe();
+        deviceSupportProbe.setListener(new DeviceSupportProbe.Listener() {
+            @Override
+            public void onResult(DeviceSupportProbe.Result result) {
+                deviceSupportProbe.setListener(null);
+
+                if (result.isSupported()) {
+                    Log.d("Switch My Slot", "Device supported! This is an A/B device with Android version 7.1 or newer and bootctl utility is available.");
+                    loadSlotInformation();
+                } else {
+                    String unsupportedReason = getString(result.getUnsupportedReason());
+                    Log.e("Switch My Slot", "Error: Device unsupported. " + unsupportedReason);
+                    showProgress(false);
+                    displayErrorAndExit(unsupportedReason);
+                }
+            }
+        });
     }
 
 
     /**
-     * Checks if the device is supported. The requirements are:
-     *  - Android version 7.1 or newer
-     *  - A/B partitions (conventional or virtual)
-     *  - SU availability
-     *  - SU granted
-     *  - Availability of bootctl utility
-     *
-     * If the device isn't supported then the app shows an error dialog and exits.
+     * Shows a progress indicator instead of the information about the slots, or the other way around.
      *
-     * @return True if the device is supported, else false.
+     * @param show True to show the progress indicator.
      */
-    public boolean checkDeviceSupport() {
-
-        boolean supported = false;
-        String unsupportedReason = "";
-
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N_MR1) {  // Seamless A/B updates are only from Android Nougat 7.1
-            unsupportedReason = getString(R.string.error_min_api);
-        } else if (ABChecker.check() == null) {  // if the device don't support the conventional or virtual A/B partitions
-            unsupportedReason = getString(R.string.error_ab_device);
-        } else if (!RootTools.isRootAvailable()) {  // if su binary is not available
-            unsupportedReason = getString(R.string.error_root_required);
-        } else if (!RootTools.isAccessGiven(0, 0)) {  // if user denied the su request
-            unsupportedReason = getString(R.string.error_root_denied);
-        } else if (!RootTools.checkUtilExecutable("bootctl")) {  // checking bootctl availability
-            unsupportedReason = getString(R.string.error_bootctl_missing);
-        } else {
-            supported = true;
-        }
-
-        if (supported) {
-            Log.d("Switch My Slot", "Device supported! This is an A/B device with Android version 7.1 or newer and bootctl utility is available.");
-        } else {
-            Log.e("Switch My Slot", "Error: Device unsupported. " + unsupportedReason);
-            displayErrorAndExit(unsupportedReason);
-        }
-
-        return supported;
+    public void showProgress(boolean show) {
+        progressBar.setVisibility(show ? View.VISIBLE : View.GONE);
+        slotInformationGroup.setVisibility(show ? View.INVISIBLE : View.VISIBLE);
     }
 
 
@@ -305,7 +254,7 @@ public class MainActivity extends AppCompatActivity {
 
 
     /**
-     * Shows confirmation dialog and switches the active slot using bootctl utility.
+     * Shows confirmation dialog and switches the active slot through the boot_control HAL.
      * Then reboots the device using the power manager. If it fails then executes a force reboot.
      *
      * @param view The button that got clicked.
@@ -320,29 +269,7 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onClick(DialogInterface dialog, int which) {
 
-                String setActiveSlotCommandText = "";
-                Command setActiveSlotCommand, rebootCommand;
-
-                if (currentSlot == 0) {
-                    setActiveSlotCommandText = "bootctl set-active-boot-slot 1";
-                } else if (currentSlot == 1) {
-                    setActiveSlotCommandText = "bootctl set-active-boot-slot 0";
-                }
-
-                // Creating commands
-                setActiveSlotCommand = new Command(Constants.SET_ACTIVE_SLOT_COMMAND_ID, false, setActiveSlotCommandText);
-                rebootCommand = new Command(Constants.REBOOT_COMMAND_ID, false, "svc power reboot || reboot");
-
-                try {
-                    
-                    // Executing commands
-                    shell.add(setActiveSlotCommand);
-                    shell.add(rebootCommand);
-                    shell.close();
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                model.switchSlot(slotInfo.getCurrentSlot() == 0 ? 1 : 0);
             }
         });
         builder.setNegativeButton(getString(android.R.string.no), null);
@@ -26,23 +26,118 @@
 
 package org.shou.switchmyslot;
 
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
+import com.stericson.RootShell.execution.Command;
 import com.stericson.RootShell.execution.Shell;
 import com.stericson.RootTools.RootTools;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivityViewModel extends ViewModel {
 
-    private Shell shell;
+    private volatile BootControl bootControl;
+    private DeviceSupportProbe deviceSupportProbe;
 
-    public void setShell(Shell shell) {
-        this.shell = shell;
+    private final MutableLiveData<SlotInfo> slotInfo = new MutableLiveData<>();
+    private final MutableLiveData<String> slotInfoError = new MutableLiveData<>();
+    private final MutableLiveData<String> switchSlotError = new MutableLiveData<>();
+    private ExecutorService bootControlExecutor;
+
+    /**
+     * Gets the device support probe, it survives re-creations of the activity so the checks run only once.
+     *
+     * @return The started probe.
+     */
+    public DeviceSupportProbe getDeviceSupportProbe() {
+        if (deviceSupportProbe == null) {
+            deviceSupportProbe = new DeviceSupportProbe();
+            deviceSupportProbe.start();
+        }
+
+        return deviceSupportProbe;
+    }
+
+    /**
+     * @return The information about the slots, once it has been loaded.
+     */
+    public LiveData<SlotInfo> getSlotInfo() {
+        return slotInfo;
+    }
+
+    /**
+     * @return Why the information about the slots could not be loaded.
+     */
+    public LiveData<String> getSlotInfoError() {
+        return slotInfoError;
+    }
+
+    /**
+     * @return Why the slot could not be switched.
+     */
+    public LiveData<String> getSwitchSlotError() {
+        return switchSlotError;
+    }
+
+    /**
+     * Starts loading the information about the slots in the background, unless it was started already.
+     * The boot control is opened once here and kept for switching the slot later, see BootControl.open().
+     *
+     * @param apkPath  The path of the app's apk, for the boot control helper.
+     * @param cacheDir The app's cache directory, for the boot control helper.
+     */
+    public synchronized void loadSlotInfo(final String apkPath, final File cacheDir) {
+        if (bootControlExecutor != null) {
+            return;
+        }
+
+        bootControlExecutor = Executors.newSingleThreadExecutor();
+        bootControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                bootControl = BootControl.open(apkPath, cacheDir);
+
+                try {
+                    slotInfo.postValue(bootControl.getSlotInfo());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    slotInfoError.postValue(e.getMessage());
+                }
+            }
+        });
     }
 
-    public Shell getShell() {
-        return shell;
+    /**
+     * Makes the slot the active one in the background and then reboots the device using the power manager.
+     * If that fails then executes a force reboot. The device is not rebooted if the slot could not be switched.
+     *
+     * @param slot The slot to boot from.
+     */
+    public synchronized void switchSlot(final int slot) {
+        if (bootControlExecutor == null) {
+            return;  // nothing loaded, nothing to switch
+        }
+
+        bootControlExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    bootControl.setActiveBootSlot(slot);
+
+                    Shell shell = RootTools.getShell(true);
+                    shell.add(new Command(Constants.REBOOT_COMMAND_ID, false, "svc power reboot || reboot"));
+                    shell.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    switchSlotError.postValue(e.getMessage());
+                }
+            }
+        });
     }
 
     public void closeShells() {
@@ -56,6 +151,17 @@ public class MainActivityViewModel extends ViewModel {
     @Override
     protected void onCleared() {
         super.onCleared();
+        if (deviceSupportProbe != null) {
+            deviceSupportProbe.shutdown();
+        }
+        synchronized (this) {
+            if (bootControlExecutor != null) {
+                bootControlExecutor.shutdownNow();
+            }
+        }
+        if (bootControl != null) {
+            bootControl.close();
+        }
         closeShells();
         System.exit(0);
     }
@@ -0,0 +1,197 @@
+/********************************************************************************************
+ org/shou/switchmyslot/PropertyService.java: System properties for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves system properties from a snapshot taken with a single 'getprop' call, instead of
+ * starting a 'getprop' process for every property.
+ *
+ * The snapshot never changes, call refresh() to take a new one. If the dump fails the
+ * properties are looked up one by one through android.os.SystemProperties instead.
+ */
+public class PropertyService {
+
+    private static volatile PropertyService instance;
+
+    private final Map<String, String> properties; // null if the dump failed
+
+    private PropertyService(Map<String, String> properties) {
+        this.properties = properties;
+    }
+
+
+    /**
+     * Gets the current snapshot, taking it on first use.
+     *
+     * @return The property service.
+     */
+    public static PropertyService getInstance() {
+        PropertyService service = instance;
+
+        if (service == null) {
+            synchronized (PropertyService.class) {
+                service = instance;
+
+                if (service == null) {
+                    service = instance = new PropertyService(dump());
+                }
+            }
+        }
+
+        return service;
+    }
+
+
+    /**
+     * Takes a new snapshot of the properties, later calls to getInstance() return it.
+     *
+     * @return The new property service.
+     */
+    public static PropertyService refresh() {
+        PropertyService service = new PropertyService(dump());
+
+        synchronized (PropertyService.class) {
+            instance = service;
+        }
+
+        return service;
+    }
+
+
+    /**
+     * Gets the value of a given property.
+     *
+     * @param property The name of the property.
+     * @return The value of the property or null if there isn't such property.
+     */
+    public String get(String property) {
+        if (properties != null) return properties.get(property);
+
+        return getReflective(property);
+    }
+
+
+    /**
+     * @return All the properties of the snapshot, or an empty map if the dump failed.
+     */
+    public Map<String, String> getAll() {
+        return properties != null ? properties : Collections.<String, String>emptyMap();
+    }
+
+
+    private static Map<String, String> dump() {
+        try {
+            Process p = Runtime.getRuntime().exec("getprop");
+
+            try {
+                Map<String, String> properties = parse(new InputStreamReader(p.getInputStream()));
+                p.waitFor();
+
+                if (!properties.isEmpty()) return Collections.unmodifiableMap(properties);
+            } finally {
+                p.destroy();
+            }
+        } catch (Exception err) {
+            err.printStackTrace();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Parses the output of 'getprop', where every property looks like "[name]: [value]".
+     * A value may span several lines, and any of them may end with "]", so a value only ends
+     * before the line of the next property or at the end of the output.
+     *
+     * @param reader The output of 'getprop'.
+     * @return The properties by name.
+     */
+    static Map<String, String> parse(Reader reader) throws IOException {
+        Map<String, String> properties = new HashMap<>();
+        BufferedReader input = new BufferedReader(reader);
+
+        String name = null;
+        StringBuilder value = new StringBuilder();
+        String line;
+
+        while ((line = input.readLine()) != null) {
+            int separator = line.startsWith("[") ? line.indexOf("]: [") : -1;
+
+            if (separator != -1) {
+                put(properties, name, value);
+
+                name = line.substring(1, separator);
+                value.setLength(0);
+                value.append(line, separator + 4, line.length());
+            } else if (name != null) {
+                value.append('\n').append(line);
+            }
+        }
+
+        put(properties, name, value);
+        input.close();
+
+        return properties;
+    }
+
+
+    /**
+     * Adds the property, unless its value was cut off before the closing "]".
+     */
+    private static void put(Map<String, String> properties, String name, StringBuilder value) {
+        if (name != null && value.length() > 0 && value.charAt(value.length() - 1) == ']') {
+            properties.put(name, value.substring(0, value.length() - 1));
+        }
+    }
+
+
+    private static String getReflective(String property) {
+        try {
+            Class<?> systemProperties = Class.forName("android.os.SystemProperties");
+            Method get = systemProperties.getMethod("get", String.class);
+
+            String value = (String) get.invoke(null, property);
+
+            return Utils.isNullOrBlank(value) ? null : value;
+        } catch (Exception err) {
+            err.printStackTrace();
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,113 @@
+/********************************************************************************************
+ org/shou/switchmyslot/SlotInfo.java: Boot slot information for Switch My Slot Android App
+
+ Copyright (C) 2010 - 2021 Shou
+
+ MIT License
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in all
+ copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ SOFTWARE.
+ */
+
+package org.shou.switchmyslot;
+
+import java.util.List;
+
+/**
+ * The information about the boot slots, as bootctl utility reports it.
+ */
+public final class SlotInfo {
+
+    // Queries all the information in one go, every answer on its own line behind its key
+    static final String BOOTCTL_QUERY = "echo \"hal-info:$(bootctl hal-info)\";"
+            + " echo \"number-slots:$(bootctl get-number-slots)\";"
+            + " slot=$(bootctl get-current-slot);"
+            + " echo \"current-slot:$slot\";"
+            + " echo \"suffix:$(bootctl get-suffix $slot)\"";
+
+    private final String halInfo;
+    private final String numberOfSlots;
+    private final int currentSlot;
+    private final String currentSlotSuffix;
+
+    public SlotInfo(String halInfo, String numberOfSlots, int currentSlot, String currentSlotSuffix) {
+        this.halInfo = halInfo;
+        this.numberOfSlots = numberOfSlots;
+        this.currentSlot = currentSlot;
+        this.currentSlotSuffix = currentSlotSuffix;
+    }
+
+
+    /**
+     * Reads the output of BOOTCTL_QUERY.
+     *
+     * @param lines The output lines.
+     * @return The information, or null if the current slot is missing from the output.
+     */
+    static SlotInfo parse(List<String> lines) {
+        String halInfo = "", numberOfSlots = "", currentSlot = null, currentSlotSuffix = "";
+
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+
+            if (colon == -1) {
+                continue;
+            }
+
+            String value = line.substring(colon + 1).trim();
+
+            switch (line.substring(0, colon)) {
+                case "hal-info":
+                    halInfo = value;
+                    break;
+                case "number-slots":
+                    numberOfSlots = value;
+                    break;
+                case "current-slot":
+                    currentSlot = value;
+                    break;
+                case "suffix":
+                    currentSlotSuffix = value;
+                    break;
+            }
+        }
+
+        try {
+            return new SlotInfo(halInfo, numberOfSlots, Integer.parseInt(currentSlot), currentSlotSuffix);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+
+    public String getHalInfo() {
+        return halInfo;
+    }
+
+    public String getNumberOfSlots() {
+        return numberOfSlots;
+    }
+
+    public int getCurrentSlot() {
+        return currentSlot;
+    }
+
+    public String getCurrentSlotSuffix() {
+        return currentSlotSuffix;
+    }
+}
@@ -26,9 +26,6 @@
 
 package org.shou.switchmyslot;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-
 public class Utils {
 
     /**
@@ -56,7 +53,7 @@ public class Utils {
     /**
      * Wraps the getProperty function with defaultValue of an empty string.
      *
-     * @param property The property to check with 'getprop' command.
+     * @param property The property to look up.
      * @return The value of the property or an empty string if there isn't such property.
      */
     public static String getProperty(String property) {
@@ -65,28 +62,17 @@ public class Utils {
 
 
     /**
-     * Gets the value of a given property with 'getprop' command.
+     * Gets the value of a given property from the snapshot of PropertyService.
      *
-     * @param property The property to check with 'getprop' command.
+     * @param property The property to look up.
      * @param defaultValue The value to return when there isn't such property.
      * @return The value of the property or the defaultValue if there isn't such property.
      */
     public static String getProperty(String property, String defaultValue) {
 
-        String value;
-
-        try {
-            Process p = Runtime.getRuntime().exec("getprop " + property);
-            BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()));
-
-            value = input.readLine();
-            input.close();
-
-            if (!isNullOrBlank(value)) return value;
+        String value = PropertyService.getInstance().get(property);
 
-        } catch (Exception err) {
-            err.printStackTrace();
-        }
+        if (!isNullOrBlank(value)) return value;
 
         return defaultValue;
     }
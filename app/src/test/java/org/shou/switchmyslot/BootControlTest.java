@@ -0,0 +1,236 @@
+package org.shou.switchmyslot;
+
+import com.stericson.RootShell.execution.Command;
+import com.stericson.RootShell.execution.Shell;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class BootControlTest {
+
+    private static final String HAL_INFO = "HAL Version: android.hardware.boot@1.1::IBootControl";
+
+    private FakeBootControl fake;
+    private HelperBootControl helper;
+    private Thread server;
+
+
+    @Before
+    public void startHelper() throws Exception {
+        fake = new FakeBootControl(HAL_INFO, 1, "_a", "_b");
+
+        // the helper process, serving the scripted HAL over a connection like the one to its stdin/stdout
+        final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        server = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    BootControlHelper.serve(new BufferedReader(new InputStreamReader(socket.getInputStream())), new OutputStreamWriter(socket.getOutputStream()), fake);
+                    socket.close();
+                    serverSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        server.start();
+
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        helper = new HelperBootControl(socket.getInputStream(), socket.getOutputStream(), null);
+        helper.awaitReady(5000);
+    }
+
+    @After
+    public void stopHelper() throws Exception {
+        helper.close();
+        server.join(5000);
+    }
+
+
+    @Test
+    public void slotInfoFromTheFake() throws Exception {
+        SlotInfo info = new FakeBootControl(HAL_INFO, 0, "_a", "_b").getSlotInfo();
+
+        assertEquals(HAL_INFO, info.getHalInfo());
+        assertEquals("2", info.getNumberOfSlots());
+        assertEquals(0, info.getCurrentSlot());
+        assertEquals("_a", info.getCurrentSlotSuffix());
+    }
+
+    @Test
+    public void helperAnswersManyQueries() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            SlotInfo info = helper.getSlotInfo();
+
+            assertEquals(HAL_INFO, info.getHalInfo());
+            assertEquals("2", info.getNumberOfSlots());
+            assertEquals(1, info.getCurrentSlot());
+            assertEquals("_b", info.getCurrentSlotSuffix());
+        }
+
+        assertEquals(200, fake.getCalls().size());  // every query went to the one helper
+    }
+
+    @Test
+    public void helperSwitchesTheSlot() throws Exception {
+        helper.setActiveBootSlot(0);
+
+        assertEquals(0, fake.getActiveSlot());
+    }
+
+    @Test
+    public void helperReportsErrors() throws Exception {
+        fake.failNext("get-suffix", "HAL is dead");
+
+        try {
+            helper.getSuffix(0);
+            fail();
+        } catch (IOException e) {
+            assertEquals("HAL is dead", e.getMessage());
+        }
+
+        try {
+            helper.setActiveBootSlot(7);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Invalid slot: 7", e.getMessage());
+        }
+
+        assertEquals("_a", helper.getSuffix(0));  // still serving after the errors
+    }
+
+    @Test
+    public void closeStopsTheHelper() throws Exception {
+        helper.close();
+        server.join(5000);
+
+        assertTrue(fake.isClosed());
+
+        try {
+            helper.getCurrentSlot();
+            fail();
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    @Test
+    public void helperThatFailsToStart() throws Exception {
+        InputStream answers = new ByteArrayInputStream("error No android.hardware.boot@1.0::IBootControl service\n".getBytes());
+        HelperBootControl failed = new HelperBootControl(answers, new ByteArrayOutputStream(), null);
+
+        try {
+            failed.awaitReady(5000);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("IBootControl"));
+        }
+    }
+
+    @Test
+    public void helperThatHangsDoesNotBlockClose() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+        Socket silent = serverSocket.accept();  // never answers, like a helper stuck in the HAL
+
+        HelperBootControl hung = new HelperBootControl(socket.getInputStream(), socket.getOutputStream(), null);
+        long start = System.currentTimeMillis();
+
+        try {
+            hung.awaitReady(300);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("did not answer"));
+        }
+
+        hung.close();
+        assertTrue(System.currentTimeMillis() - start < 3000);
+
+        silent.close();
+        serverSocket.close();
+    }
+
+    @Test
+    public void helperStartedInTheBackgroundOfAShell() throws Exception {
+        File dir = fifoDir();
+        Shell shell = Shell.startCustomShell("/bin/sh");
+
+        try {
+            HelperBootControl started = HelperBootControl.start(shell, "sh -c 'echo ready; while read -r r; do case $r in"
+                    + " hal-info) echo \"ok " + HAL_INFO + "\";; quit) exit;; *) echo error $r;; esac; done'",
+                    new File(dir, "requests"), new File(dir, "answers"));
+
+            assertEquals(HAL_INFO, started.getHalInfo());
+
+            // the shell is free for other commands while the helper runs
+            Command other = new Command(0, "true");
+            shell.add(other);
+            assertTrue(other.waitForFinish(5000));
+
+            started.close();
+        } finally {
+            Shell.closeAll();
+        }
+    }
+
+    @Test
+    public void closeKillsAHelperStartedInAShell() throws Exception {
+        File dir = fifoDir();
+        File pid = new File(dir, "pid");
+        Shell shell = Shell.startCustomShell("/bin/sh");
+
+        try {
+            HelperBootControl started = HelperBootControl.start(shell, "sh -c 'echo $$ > " + pid + "; echo ready; exec sleep 60'",
+                    new File(dir, "requests"), new File(dir, "answers"));
+            File process = new File("/proc/" + new String(Files.readAllBytes(pid.toPath())).trim());
+
+            started.close();
+
+            for (int i = 0; i < 50 && process.exists(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(!process.exists());
+        } finally {
+            Shell.closeAll();
+        }
+    }
+
+
+    /**
+     * @return A new directory with the named pipes "requests" and "answers", skips the test without /bin/sh or mkfifo.
+     */
+    private static File fifoDir() throws Exception {
+        assumeTrue(new File("/bin/sh").canExecute() && new File("/proc/self").exists());
+        File dir = Files.createTempDirectory("boot_control").toFile();
+        dir.deleteOnExit();
+
+        Process mkfifo;
+        try {
+            mkfifo = new ProcessBuilder("mkfifo", new File(dir, "requests").getPath(), new File(dir, "answers").getPath()).start();
+        } catch (IOException e) {
+            mkfifo = null;
+        }
+        assumeTrue(mkfifo != null && mkfifo.waitFor() == 0);
+        return dir;
+    }
+}
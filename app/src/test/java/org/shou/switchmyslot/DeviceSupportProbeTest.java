@@ -0,0 +1,152 @@
+package org.shou.switchmyslot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceSupportProbeTest {
+
+    private static final int[] REASONS = {1, 2, 3};
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private Callable<Boolean> check(final boolean ok, final boolean slow) {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (slow) {
+                    release.await();
+                }
+                return ok;
+            }
+        };
+    }
+
+    private DeviceSupportProbe.Result run(DeviceSupportProbe probe) throws InterruptedException {
+        final AtomicReference<DeviceSupportProbe.Result> result = new AtomicReference<>();
+        final CountDownLatch delivered = new CountDownLatch(1);
+
+        probe.setListener(new DeviceSupportProbe.Listener() {
+            @Override
+            public void onResult(DeviceSupportProbe.Result r) {
+                result.set(r);
+                delivered.countDown();
+            }
+        });
+        probe.start();
+
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void supportedWhenEveryCheckPasses() throws Exception {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        checks.add(check(true, false));
+        checks.add(check(true, false));
+        checks.add(check(true, false));
+
+        DeviceSupportProbe.Result result = run(new DeviceSupportProbe(checks, REASONS, Executors.newFixedThreadPool(3), DIRECT));
+
+        assertTrue(result.isSupported());
+        assertEquals(0, result.getUnsupportedReason());
+    }
+
+    @Test
+    public void failsWithoutWaitingForLaterChecks() throws Exception {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        checks.add(check(true, false));
+        checks.add(check(false, false));
+        checks.add(check(true, true));  // never finishes on its own
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        DeviceSupportProbe.Result result = run(new DeviceSupportProbe(checks, REASONS, executor, DIRECT));
+
+        assertFalse(result.isSupported());
+        assertEquals(2, result.getUnsupportedReason());
+        release.countDown();
+    }
+
+    @Test
+    public void reportsTheFirstUnmetRequirement() throws Exception {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        checks.add(check(false, true));  // fails, but only after the later check did
+        checks.add(check(true, false));
+        checks.add(check(false, false));
+
+        final DeviceSupportProbe probe = new DeviceSupportProbe(checks, REASONS, Executors.newFixedThreadPool(3), DIRECT);
+        probe.start();
+
+        Thread.sleep(100);
+        assertNull(probe.getResult());
+        release.countDown();
+
+        assertEquals(1, run(probe).getUnsupportedReason());
+    }
+
+    @Test
+    public void deliversToALateListener() throws Exception {
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        checks.add(check(false, false));
+
+        DeviceSupportProbe probe = new DeviceSupportProbe(checks, REASONS, Executors.newSingleThreadExecutor(), DIRECT);
+        assertEquals(1, run(probe).getUnsupportedReason());
+
+        // like an activity that was re-created after the checks finished
+        assertEquals(1, run(probe).getUnsupportedReason());
+    }
+
+    @Test
+    public void chainedCheckRunsOnlyAfterTheOneBeforeItPassed() throws Exception {
+        final AtomicBoolean granted = new AtomicBoolean();
+        final AtomicBoolean checkedBootctl = new AtomicBoolean();
+
+        List<Callable<Boolean>> checks = new ArrayList<>();
+        checks.add(check(true, false));
+        checks.add(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return granted.get();
+            }
+        });
+        checks.add(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                checkedBootctl.set(true);
+                return true;
+            }
+        });
+        boolean[] chained = {false, false, true};
+
+        // denied: the chained check never runs
+        DeviceSupportProbe.Result result = run(new DeviceSupportProbe(checks, REASONS, chained, Executors.newFixedThreadPool(3), DIRECT));
+        assertEquals(2, result.getUnsupportedReason());
+        assertFalse(checkedBootctl.get());
+
+        granted.set(true);
+        result = run(new DeviceSupportProbe(checks, REASONS, chained, Executors.newFixedThreadPool(3), DIRECT));
+        assertTrue(result.isSupported());
+        assertTrue(checkedBootctl.get());
+    }
+}
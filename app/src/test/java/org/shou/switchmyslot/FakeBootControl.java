@@ -0,0 +1,113 @@
+package org.shou.switchmyslot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A boot control that answers from a script instead of the HAL, and records what it was asked.
+ */
+class FakeBootControl extends BootControl {
+
+    private final String halInfo;
+    private final String[] suffixes;
+    private int currentSlot;
+    private int activeSlot;
+    private boolean closed;
+
+    private final List<String> calls = new ArrayList<>();
+    private final Map<String, String> failures = new HashMap<>();
+
+
+    /**
+     * @param halInfo     What hal-info answers.
+     * @param currentSlot The slot the device booted from, also the active one.
+     * @param suffixes    The suffix of every slot.
+     */
+    FakeBootControl(String halInfo, int currentSlot, String... suffixes) {
+        this.halInfo = halInfo;
+        this.currentSlot = currentSlot;
+        this.activeSlot = currentSlot;
+        this.suffixes = suffixes;
+    }
+
+
+    /**
+     * Makes the next call of the method fail.
+     *
+     * @param method  The request of the method, like "get-suffix".
+     * @param message The message of the IOException.
+     */
+    synchronized FakeBootControl failNext(String method, String message) {
+        failures.put(method, message);
+        return this;
+    }
+
+    synchronized List<String> getCalls() {
+        return new ArrayList<>(calls);
+    }
+
+    synchronized int getActiveSlot() {
+        return activeSlot;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+
+    @Override
+    public String getHalInfo() throws IOException {
+        called("hal-info");
+        return halInfo;
+    }
+
+    @Override
+    public int getNumberOfSlots() throws IOException {
+        called("get-number-slots");
+        return suffixes.length;
+    }
+
+    @Override
+    public int getCurrentSlot() throws IOException {
+        called("get-current-slot");
+        return currentSlot;
+    }
+
+    @Override
+    public String getSuffix(int slot) throws IOException {
+        called("get-suffix");
+        checkSlot(slot);
+        return suffixes[slot];
+    }
+
+    @Override
+    public synchronized void setActiveBootSlot(int slot) throws IOException {
+        called("set-active-boot-slot");
+        checkSlot(slot);
+        activeSlot = slot;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+
+
+    private synchronized void called(String method) throws IOException {
+        calls.add(method);
+
+        String failure = failures.remove(method);
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    private void checkSlot(int slot) throws IOException {
+        if (slot < 0 || slot >= suffixes.length) {
+            throw new IOException("Invalid slot: " + slot);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.shou.switchmyslot;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PropertyServiceTest {
+
+    @Test
+    public void parsesGetpropDump() throws Exception {
+        Map<String, String> properties = PropertyService.parse(new StringReader(
+                "[ro.boot.slot_suffix]: [_b]\n" +
+                "[ro.build.ab_update]: [true]\n" +
+                "[ro.empty]: []\n" +
+                "[ro.multi.line]: [first\n" +
+                "second]\n" +
+                "[ro.virtual_ab.enabled]: [true]\n"));
+
+        assertEquals("_b", properties.get("ro.boot.slot_suffix"));
+        assertEquals("true", properties.get("ro.build.ab_update"));
+        assertEquals("", properties.get("ro.empty"));
+        assertEquals("first\nsecond", properties.get("ro.multi.line"));
+        assertEquals("true", properties.get("ro.virtual_ab.enabled"));
+        assertNull(properties.get("ro.virtual_ab.retrofit"));
+    }
+
+    @Test
+    public void valueWithALineEndingInABracket() throws Exception {
+        Map<String, String> properties = PropertyService.parse(new StringReader(
+                "[ro.bracket]: [first]\n" +
+                "second]\n" +
+                "[ro.after]: [true]\n" +
+                "[ro.last]: [one]\n" +
+                "[two]]"));
+
+        assertEquals("first]\nsecond", properties.get("ro.bracket"));
+        assertEquals("true", properties.get("ro.after"));
+        assertEquals("one]\n[two]", properties.get("ro.last"));
+    }
+
+    @Test
+    public void valueCutOffIsDropped() throws Exception {
+        Map<String, String> properties = PropertyService.parse(new StringReader(
+                "[ro.whole]: [true]\n" +
+                "[ro.cut]: [fir"));
+
+        assertEquals("true", properties.get("ro.whole"));
+        assertNull(properties.get("ro.cut"));
+    }
+}
@@ -0,0 +1,31 @@
+package org.shou.switchmyslot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SlotInfoTest {
+
+    @Test
+    public void parsesBootctlQuery() {
+        SlotInfo info = SlotInfo.parse(Arrays.asList(
+                "hal-info:HAL Version: android.hardware.boot@1.1::IBootControl",
+                "number-slots:2",
+                "current-slot:1",
+                "suffix:_b"));
+
+        assertEquals("HAL Version: android.hardware.boot@1.1::IBootControl", info.getHalInfo());
+        assertEquals("2", info.getNumberOfSlots());
+        assertEquals(1, info.getCurrentSlot());
+        assertEquals("_b", info.getCurrentSlotSuffix());
+    }
+
+    @Test
+    public void needsTheCurrentSlot() {
+        assertNull(SlotInfo.parse(Arrays.asList("hal-info:", "number-slots:", "current-slot:", "suffix:")));
+        assertNull(SlotInfo.parse(Arrays.asList("/system/bin/sh: bootctl: not found")));
+    }
+}